@@ -46,6 +46,14 @@ abstract class AbstractEndpointStepExecution2 extends GeneralNonBlockingStepExec
 
     protected abstract KeyMaterialFactory newKeyMaterialFactory() throws IOException, InterruptedException;
 
+    /**
+     * May replace the key material before the block starts.
+     * @return by default, {@code material}
+     */
+    protected KeyMaterial2 decorate(KeyMaterial2 material) throws IOException, InterruptedException {
+        return material;
+    }
+
     @Override public final boolean start() throws Exception {
         run(this::doStart);
         return false;
@@ -53,7 +61,7 @@ abstract class AbstractEndpointStepExecution2 extends GeneralNonBlockingStepExec
 
     private void doStart() throws Exception {
         KeyMaterialFactory keyMaterialFactory = newKeyMaterialFactory();
-        KeyMaterial2 material = keyMaterialFactory.materialize2();
+        KeyMaterial2 material = decorate(keyMaterialFactory.materialize2());
         getContext().newBodyInvoker().
                 withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new Expander2(material))).
                 withCallback(new Callback2(material)).
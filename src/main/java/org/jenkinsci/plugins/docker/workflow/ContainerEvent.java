@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for starting or stopping the container of {@link WithContainerStep}.
+ */
+@Name("org.jenkinsci.plugins.docker.workflow.Container")
+@Label("Docker Container")
+@Category({"Jenkins", "Docker Pipeline"})
+@Description("Start or stop of a withDockerContainer container")
+final class ContainerEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    @Description("start or stop")
+    String operation;
+
+    @Label("Image")
+    String image;
+
+    @Label("Container ID")
+    String container;
+
+    @Label("Build")
+    String build;
+
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs processes in a container without a {@code docker exec} each.
+ * Instead of {@code cat}, the container runs a shell loop reading requests from a named pipe in the workspace temporary directory,
+ * which is mounted at the same path in the container.
+ * Each request is a directory holding a script to run and named pipes for its output and exit status,
+ * written and read by a small client shell script on the agent which stands in for {@code docker exec}.
+ * Only for Unix containers whose Docker daemon runs on the agent, since both sides must share the pipes.
+ */
+final class ContainerExecAgent {
+
+    /**
+     * Container command: serves requests until the container is stopped.
+     * The pipe is opened for reading and writing so that it never reports end of file between clients.
+     * The status pipe is held open from the start of each request, so that the client sees it end once the container is gone.
+     */
+    private static final String SERVER =
+        "exec 3<> \"$1/requests\" || exit 1\n" +
+        "while read -r r <&3; do\n" +
+        "  ( exec 4> \"$r/status\"; sh \"$r/run\" > \"$r/out\" 2> \"$r/err\" < /dev/null 3<&- 4>&-; echo $? >&4 ) &\n" +
+        "done\n";
+
+    /**
+     * Agent command: submits one request and relays its output and exit status.
+     * Opening the request pipe is given up on after a while in case the container is gone.
+     * The status is waited for as long as the command runs, even after it closed its output.
+     */
+    private static final String CLIENT =
+        // The timer passes its own termination on to its sleep, which would otherwise be left behind for 10s on every command.
+        "bounded() { \"$@\" & p=$!; ( trap 'kill $w; exit' TERM; sleep 10 & w=$!; wait $w && kill $p ) < /dev/null > /dev/null 2>&1 & k=$!; wait $p; e=$?; kill $k 2>/dev/null; return $e; }\n" +
+        "r=$(mktemp -d \"$1/r.XXXXXX\") || exit 125\n" +
+        "mkfifo \"$r/out\" \"$r/err\" \"$r/status\" || exit 125\n" +
+        "printf '%s\\n' \"$2\" > \"$r/run\"\n" +
+        "cat \"$r/status\" > \"$r/code\" & s=$!\n" +
+        "if ! bounded sh -c 'echo \"$1\" > \"$2\"' - \"$r\" \"$1/requests\"; then\n" +
+        "  echo 'container is not accepting commands' >&2; kill $s; rm -rf \"$r\"; exit 125\n" +
+        "fi\n" +
+        "cat \"$r/err\" >&2 &\n" +
+        "cat \"$r/out\"\n" +
+        "wait\n" +
+        "c=$(cat \"$r/code\")\n" +
+        "rm -rf \"$r\"\n" +
+        "exit \"${c:-125}\"\n";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private ContainerExecAgent() {}
+
+    /**
+     * @param dir a directory visible at the same path on the agent and in the container, holding a named pipe {@code requests}
+     * @return the command to run the container with
+     */
+    static @NonNull String[] serverCommand(@NonNull String dir) {
+        return new String[] {"sh", "-c", SERVER, "jenkins-exec-server", dir};
+    }
+
+    /**
+     * @param dir as passed to {@link #serverCommand}
+     * @param pwd the working directory in the container
+     * @param env variables to set in addition to those of the container
+     * @param cmds the command to run
+     * @return a command to run on the agent instead of {@code docker exec}
+     */
+    static @NonNull String[] clientCommand(@NonNull String dir, @NonNull String pwd, @NonNull Map<String, String> env, @NonNull List<String> cmds) {
+        StringBuilder run = new StringBuilder("cd ").append(quote(pwd)).append(" || exit 125\n");
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            if (NAME.matcher(e.getKey()).matches()) {
+                run.append("export ").append(quote(e.getKey() + '=' + e.getValue())).append('\n');
+            }
+        }
+        run.append("exec");
+        for (String cmd : cmds) {
+            run.append(' ').append(quote(cmd));
+        }
+        return new String[] {"sh", "-c", CLIENT, "jenkins-exec", dir, run.toString()};
+    }
+
+    /**
+     * @param dir as passed to {@link #serverCommand}
+     * @return a command to run on the agent which succeeds only if the server answers, such as when the pipe works from inside the container
+     */
+    static @NonNull String[] probeCommand(@NonNull String dir) {
+        return clientCommand(dir, "/", Collections.emptyMap(), Collections.singletonList("true"));
+    }
+
+    static @NonNull String quote(@NonNull String s) {
+        return "'" + s.replace("'", "'\"'\"'") + "'";
+    }
+
+}
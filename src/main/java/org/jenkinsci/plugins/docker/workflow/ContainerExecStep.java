@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Runs a short shell script and waits for it, streaming its output, instead of going through a durable task.
+ * Inside {@code withDockerContainer} this is a single {@code docker exec}, with no wrapper script or control directory to poll.
+ * The script does not survive a controller restart: the step then fails rather than reattaching.
+ */
+public class ContainerExecStep extends Step {
+
+    private static final Logger LOGGER = Logger.getLogger(ContainerExecStep.class.getName());
+
+    /** Identifies the processes of one step so that {@link Launcher#kill} can find them in the container. */
+    private static final String COOKIE = "JENKINS_DOCKER_EXEC_COOKIE";
+
+    private final @NonNull String script;
+    private boolean returnStdout;
+    private boolean returnStatus;
+    private @CheckForNull String encoding;
+
+    @DataBoundConstructor public ContainerExecStep(@NonNull String script) {
+        this.script = script;
+    }
+
+    @NonNull
+    public String getScript() {
+        return script;
+    }
+
+    public boolean isReturnStdout() {
+        return returnStdout;
+    }
+
+    @DataBoundSetter public void setReturnStdout(boolean returnStdout) {
+        this.returnStdout = returnStdout;
+    }
+
+    public boolean isReturnStatus() {
+        return returnStatus;
+    }
+
+    @DataBoundSetter public void setReturnStatus(boolean returnStatus) {
+        this.returnStatus = returnStatus;
+    }
+
+    @CheckForNull
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Charset in which to decode the output returned by {@link #setReturnStdout}, by default that of the agent.
+     */
+    @DataBoundSetter public void setEncoding(String encoding) {
+        this.encoding = Util.fixEmpty(encoding);
+    }
+
+    @Override public StepExecution start(StepContext context) throws Exception {
+        if (returnStdout && returnStatus) {
+            throw new IllegalArgumentException("returnStdout and returnStatus may not both be true");
+        }
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Object> {
+
+        private static final long serialVersionUID = 1;
+
+        private transient final ContainerExecStep step;
+
+        Execution(ContainerExecStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override protected Object run() throws Exception {
+            Launcher launcher = getContext().get(Launcher.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            FilePath ws = getContext().get(FilePath.class);
+            String cookie = UUID.randomUUID().toString();
+            EnvVars env = new EnvVars(getContext().get(EnvVars.class));
+            env.put(COOKIE, cookie);
+            ByteArrayOutputStream stdout = step.returnStdout ? new ByteArrayOutputStream() : null;
+            Launcher.ProcStarter starter = launcher.launch().pwd(ws).envs(env).
+                    stdout(stdout != null ? stdout : listener.getLogger()).stderr(listener.getLogger());
+            if (launcher.isUnix()) {
+                starter.cmds("sh", "-c", step.script);
+            } else {
+                starter.cmds("cmd", "/c", step.script);
+            }
+            Proc proc = starter.start();
+            int status;
+            try {
+                status = proc.join();
+            } catch (InterruptedException x) {
+                proc.kill();
+                try {
+                    launcher.kill(Collections.singletonMap(COOKIE, cookie));
+                } catch (IOException x2) {
+                    LOGGER.log(Level.FINE, "could not kill processes left by " + step.script, x2);
+                }
+                throw x;
+            }
+            if (step.returnStatus) {
+                return status;
+            }
+            if (status != 0) {
+                throw new AbortException("script returned exit code " + status);
+            }
+            if (stdout == null) {
+                return null;
+            }
+            // As with sh, the script writes in the charset of the agent, not of the controller.
+            String charset = step.encoding;
+            if (charset == null) {
+                VirtualChannel channel = ws.getChannel();
+                charset = channel != null ? channel.call(new GetCharset()) : Charset.defaultCharset().name();
+            }
+            return stdout.toString(charset);
+        }
+
+    }
+
+    private static final class GetCharset extends MasterToSlaveCallable<String, RuntimeException> {
+
+        private static final long serialVersionUID = 1;
+
+        @Override public String call() {
+            return Charset.defaultCharset().name();
+        }
+
+    }
+
+    @Extension public static class DescriptorImpl extends StepDescriptor {
+
+        @Override public String getFunctionName() {
+            return "dockerExec";
+        }
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Run a short script without a durable task";
+        }
+
+        @Override public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Launcher.class, FilePath.class, EnvVars.class, TaskListener.class);
+        }
+
+    }
+
+}
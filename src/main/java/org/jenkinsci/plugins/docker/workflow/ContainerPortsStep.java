@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.Run;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.jenkinsci.plugins.docker.workflow.client.WindowsDockerClient;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Looks up all published ports of a container with a single {@code docker port}.
+ * Used by {@code Container.ports()} and {@code Container.port(int)}.
+ */
+public class ContainerPortsStep extends Step {
+
+    private final @NonNull String containerId;
+    private String toolName;
+
+    @DataBoundConstructor public ContainerPortsStep(@NonNull String containerId) {
+        this.containerId = containerId;
+    }
+
+    @NonNull
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getToolName() {
+        return toolName;
+    }
+
+    @DataBoundSetter public void setToolName(String toolName) {
+        this.toolName = Util.fixEmpty(toolName);
+    }
+
+    @Override public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Map<String, String>> {
+
+        private static final long serialVersionUID = 1;
+
+        private transient final ContainerPortsStep step;
+
+        Execution(ContainerPortsStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override protected Map<String, String> run() throws Exception {
+            Launcher launcher = getContext().get(Launcher.class);
+            Node node = getContext().get(Node.class);
+            DockerClient client = launcher.isUnix()
+                ? new DockerClient(launcher, node, step.toolName)
+                : new WindowsDockerClient(launcher, node, step.toolName);
+            Run<?, ?> run = getContext().get(Run.class);
+            if (run != null) {
+                client.setBuildRecorder(DockerCommandsAction.of(run));
+            }
+            // Same format as `docker port <id> <port>`: one binding per line.
+            Map<String, String> ports = new TreeMap<>();
+            for (Map.Entry<String, List<String>> entry : client.getPorts(getContext().get(EnvVars.class), step.containerId).entrySet()) {
+                ports.put(entry.getKey(), String.join("\n", entry.getValue()));
+            }
+            return ports;
+        }
+
+    }
+
+    @Extension public static class DescriptorImpl extends StepDescriptor {
+
+        @Override public String getFunctionName() {
+            return "dockerContainerPorts";
+        }
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Published ports of a Docker container";
+        }
+
+        @Override public boolean isAdvanced() {
+            return true;
+        }
+
+        @Override public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Launcher.class, Node.class, EnvVars.class);
+        }
+
+    }
+
+}
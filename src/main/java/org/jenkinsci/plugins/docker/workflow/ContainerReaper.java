@@ -0,0 +1,253 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.jenkinsci.plugins.docker.workflow.client.WindowsDockerClient;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Removes containers started by {@link WithContainerStep} in the background once their block has exited.
+ * Removals are batched per node and retried on failure.
+ * Pending removals are persisted so that containers are still cleaned up after a controller restart.
+ */
+@Restricted(NoExternalUse.class)
+@Extension public final class ContainerReaper {
+
+    private static final Logger LOGGER = Logger.getLogger(ContainerReaper.class.getName());
+
+    /**
+     * Time (in milliseconds) to wait for more containers to remove before running {@code docker rm}.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static long BATCH_DELAY = Long.getLong(ContainerReaper.class.getName() + ".BATCH_DELAY", 1000);
+
+    /**
+     * Time (in milliseconds) to wait before retrying failed removals, or removals on offline nodes.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static long RETRY_DELAY = Long.getLong(ContainerReaper.class.getName() + ".RETRY_DELAY", TimeUnit.MINUTES.toMillis(1));
+
+    /**
+     * Number of failed attempts after which a container is given up on.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static int MAX_ATTEMPTS = Integer.getInteger(ContainerReaper.class.getName() + ".MAX_ATTEMPTS", 10);
+
+    private final List<Entry> pending = new ArrayList<>();
+    private transient boolean scheduled;
+
+    public ContainerReaper() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to load " + file, x);
+            }
+        }
+    }
+
+    static ContainerReaper get() {
+        return ExtensionList.lookupSingleton(ContainerReaper.class);
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void resume() {
+        ContainerReaper reaper = get();
+        synchronized (reaper) {
+            if (!reaper.pending.isEmpty()) {
+                LOGGER.log(Level.INFO, "resuming removal of {0} containers", reaper.pending.size());
+                reaper.schedule(RETRY_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Queues a container for removal.
+     * @param node the node whose Docker daemon runs the container
+     * @param toolName the Docker installation to use, if any
+     * @param env the environment the container was started with; only {@code DOCKER_*} variables are kept
+     * @param container the container ID
+     */
+    synchronized void add(@NonNull Node node, @CheckForNull String toolName, @NonNull EnvVars env, @NonNull String container) {
+        pending.add(new Entry(node.getNodeName(), toolName, dockerEnv(env), container));
+        save();
+        schedule(BATCH_DELAY);
+    }
+
+    /** Variables telling the Docker client which daemon to talk to and how. */
+    private static final Set<String> DOCKER_ENV = Set.of("DOCKER_HOST", "DOCKER_CONTEXT", "DOCKER_CONFIG", "DOCKER_TLS_VERIFY", "DOCKER_API_VERSION");
+
+    /**
+     * Picks the variables selecting the daemon out of the environment of a build.
+     * Others are not persisted, since they may hold secrets, even among those starting with {@code DOCKER_}.
+     */
+    static @NonNull Map<String, String> dockerEnv(@NonNull Map<String, String> env) {
+        Map<String, String> dockerEnv = new TreeMap<>();
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            if (DOCKER_ENV.contains(e.getKey())) {
+                dockerEnv.put(e.getKey(), e.getValue());
+            }
+        }
+        return dockerEnv;
+    }
+
+    private synchronized void schedule(long delay) {
+        if (!scheduled) {
+            scheduled = true;
+            Timer.get().schedule(this::reap, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reap() {
+        Map<String, List<Entry>> batches = new LinkedHashMap<>();
+        synchronized (this) {
+            scheduled = false;
+            for (Entry entry : pending) {
+                batches.computeIfAbsent(entry.node + '\n' + entry.toolName + '\n' + entry.env, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        List<Entry> finished = new ArrayList<>();
+        try {
+            for (List<Entry> batch : batches.values()) {
+                Entry first = batch.get(0);
+                Jenkins j = Jenkins.get();
+                Node node = first.node.isEmpty() ? j : j.getNode(first.node);
+                if (node == null) {
+                    LOGGER.log(Level.FINE, "agent {0} no longer exists, forgetting its containers", first.node);
+                    finished.addAll(batch);
+                    continue;
+                }
+                Computer computer = node.toComputer();
+                if (computer == null || computer.isOffline()) {
+                    continue;
+                }
+                try {
+                    Launcher launcher = node.createLauncher(TaskListener.NULL);
+                    EnvVars env = computer.getEnvironment();
+                    env.putAll(first.env);
+                    DockerClient client = launcher.isUnix()
+                        ? new DockerClient(launcher, node, first.toolName)
+                        : new WindowsDockerClient(launcher, node, first.toolName);
+                    finished.addAll(remove(client, env, batch));
+                } catch (IOException x) {
+                    LOGGER.log(Level.FINE, "failed to remove containers on " + first.node, x);
+                }
+                for (Entry entry : batch) {
+                    if (finished.contains(entry)) {
+                        continue;
+                    }
+                    if (++entry.attempts >= MAX_ATTEMPTS) {
+                        LOGGER.log(Level.WARNING, "giving up on removing container {0} on {1}", new Object[] {entry.container, entry.node});
+                        finished.add(entry);
+                    }
+                }
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                pending.removeAll(finished);
+                save();
+                // Also covers entries left over when interrupted or failing unexpectedly; entries added meanwhile are already scheduled.
+                if (!pending.isEmpty()) {
+                    schedule(RETRY_DELAY);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the entries whose containers are gone
+     */
+    private static List<Entry> remove(DockerClient client, EnvVars env, List<Entry> batch) throws IOException, InterruptedException {
+        if (DockerClient.SKIP_RM_ON_STOP) {
+            List<Entry> stopped = new ArrayList<>();
+            for (Entry entry : batch) {
+                try {
+                    client.forceStop(env, entry.container);
+                    stopped.add(entry);
+                } catch (IOException x) {
+                    LOGGER.log(Level.FINE, null, x);
+                }
+            }
+            return stopped;
+        }
+        List<String> containers = new ArrayList<>();
+        for (Entry entry : batch) {
+            containers.add(entry.container);
+        }
+        try {
+            client.rm(env, containers);
+            return batch;
+        } catch (IOException x) {
+            // Some container could not be removed, perhaps because it is already gone; sort out which.
+            LOGGER.log(Level.FINE, null, x);
+            List<Entry> removed = new ArrayList<>();
+            for (Entry entry : batch) {
+                if (client.inspect(env, entry.container, ".Id") == null) {
+                    removed.add(entry);
+                }
+            }
+            return removed;
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, null, x);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), ContainerReaper.class.getName() + ".xml"));
+    }
+
+    private static final class Entry {
+
+        /** {@link Node#getNodeName} */
+        final @NonNull String node;
+        final @CheckForNull String toolName;
+        /** {@link #dockerEnv} of the build */
+        final @NonNull Map<String, String> env;
+        final @NonNull String container;
+        int attempts;
+
+        Entry(@NonNull String node, @CheckForNull String toolName, @NonNull Map<String, String> env, @NonNull String container) {
+            this.node = node;
+            this.toolName = toolName;
+            this.env = env;
+            this.container = container;
+        }
+
+    }
+
+}
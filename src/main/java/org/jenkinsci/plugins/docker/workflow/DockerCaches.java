@@ -0,0 +1,212 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Dependency caches kept in named volumes between {@link WithContainerStep} blocks.
+ * Caches are written as {@code name:/path/in/container} entries separated by whitespace, e.g. {@code maven:/root/.m2 npm:/root/.npm}.
+ * Each executor of each node gets its own volume per cache, so consecutive builds find it warm.
+ * A volume is only mounted by one block at a time: parallel branches on the same executor get further volumes.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerCaches {
+
+    /** Label set on cache volumes, with the cache name as value. */
+    static final String LABEL_CACHE = "org.jenkinsci.plugins.docker.workflow.cache";
+
+    /**
+     * Most cache volumes to keep on each Docker daemon; 0 to keep them all.
+     * When a new volume takes the count above this, the least recently used ones not mounted are removed.
+     * Volumes are counted rather than measured, since sizing them would mean scanning their contents.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static int MAX_VOLUMES = Integer.getInteger(DockerCaches.class.getName() + ".MAX_VOLUMES", 0);
+
+    /** Volumes mounted by a running block, as daemon and volume name separated by a newline. */
+    private static final Set<String> leased = new HashSet<>();
+
+    /** When volumes were last released, keyed like {@link #leased}; volumes unused since startup count as oldest. */
+    private static final Map<String, Long> lastUsed = new HashMap<>();
+
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z0-9_.-]+");
+    private static final Pattern INVALID = Pattern.compile("[^a-zA-Z0-9_.-]+");
+
+    private DockerCaches() {}
+
+    /**
+     * Parses a cache specification.
+     * @return container paths keyed by cache name
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static @NonNull Map<String, String> parse(@CheckForNull String spec) {
+        Map<String, String> caches = new LinkedHashMap<>();
+        if (spec == null) {
+            return caches;
+        }
+        for (String entry : spec.trim().split("\\s+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon == -1 || colon == entry.length() - 1 || !NAME.matcher(entry.substring(0, colon)).matches()) {
+                throw new IllegalArgumentException("Expected a cache of the form name:/path/in/container but got " + entry);
+            }
+            caches.put(entry.substring(0, colon), entry.substring(colon + 1));
+        }
+        return caches;
+    }
+
+    /**
+     * Converts the Pipeline form of caches, a map from cache name to container path, to a specification.
+     * @param caches a {@link Map}, a specification string, or null
+     */
+    public static @CheckForNull String format(@CheckForNull Object caches) {
+        if (!(caches instanceof Map)) {
+            return caches != null ? caches.toString() : null;
+        }
+        StringBuilder b = new StringBuilder();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) caches).entrySet()) {
+            if (b.length() > 0) {
+                b.append(' ');
+            }
+            b.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return b.toString();
+    }
+
+    /**
+     * Names the volume holding a cache for one executor.
+     * @param node {@code NODE_NAME}
+     * @param executor {@code EXECUTOR_NUMBER}
+     */
+    public static @NonNull String volume(@NonNull String cache, @CheckForNull String node, @CheckForNull String executor) {
+        StringBuilder b = new StringBuilder("jenkins-cache-").append(cache);
+        if (node != null) {
+            b.append('-').append(INVALID.matcher(node).replaceAll("-"));
+        }
+        if (executor != null) {
+            b.append('-').append(executor);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Picks which volumes to remove so that at most {@link #MAX_VOLUMES} remain, least recently used first.
+     * @param daemon as passed to {@link Lease}
+     * @param existing all cache volumes on the daemon
+     */
+    static synchronized @NonNull List<String> evictable(@NonNull String daemon, @NonNull List<String> existing, int max) {
+        List<String> candidates = new ArrayList<>();
+        for (String volume : existing) {
+            if (!leased.contains(daemon + '\n' + volume)) {
+                candidates.add(volume);
+            }
+        }
+        candidates.sort(Comparator.<String>comparingLong(volume -> lastUsed.getOrDefault(daemon + '\n' + volume, 0L)).thenComparing(Comparator.naturalOrder()));
+        return candidates.subList(0, Math.max(0, Math.min(candidates.size(), existing.size() - max)));
+    }
+
+    /**
+     * Removes the least recently used cache volumes beyond {@link #MAX_VOLUMES}.
+     * Volumes which cannot be removed, for example because a container of another controller mounts them, are skipped.
+     */
+    static void evict(@NonNull DockerClient client, @NonNull EnvVars env, @NonNull String daemon, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        int max = MAX_VOLUMES;
+        if (max <= 0) {
+            return;
+        }
+        for (String volume : evictable(daemon, client.listVolumes(env, LABEL_CACHE), max)) {
+            try {
+                client.rmVolume(env, volume);
+                listener.getLogger().println("Removed cache volume " + volume + " to keep at most " + max);
+                synchronized (DockerCaches.class) {
+                    lastUsed.remove(daemon + '\n' + volume);
+                }
+            } catch (IOException x) {
+                listener.getLogger().println(x.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Cache volumes mounted by one block.
+     */
+    static final class Lease implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private final @NonNull String daemon;
+        private final @NonNull List<String> volumes = new ArrayList<>();
+
+        /**
+         * @param daemon identifies the Docker daemon, such as the node name and {@code DOCKER_HOST}
+         */
+        Lease(@NonNull String daemon) {
+            this.daemon = daemon;
+        }
+
+        @NonNull String daemon() {
+            return daemon;
+        }
+
+        /**
+         * Picks a volume for a cache which no other block on the daemon has mounted.
+         * The executor's own volume is preferred; further ones are suffixed with {@code .2}, {@code .3} and so on.
+         * @param node {@code NODE_NAME}
+         * @param executor {@code EXECUTOR_NUMBER}
+         */
+        @NonNull String add(@NonNull String cache, @CheckForNull String node, @CheckForNull String executor) {
+            String base = volume(cache, node, executor);
+            synchronized (DockerCaches.class) {
+                for (int i = 1; ; i++) {
+                    String volume = i == 1 ? base : base + '.' + i;
+                    if (leased.add(daemon + '\n' + volume)) {
+                        volumes.add(volume);
+                        return volume;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Marks the volumes as mounted again, after a controller restart.
+         */
+        void resume() {
+            synchronized (DockerCaches.class) {
+                for (String volume : volumes) {
+                    leased.add(daemon + '\n' + volume);
+                }
+            }
+        }
+
+        void release() {
+            long now = System.currentTimeMillis();
+            synchronized (DockerCaches.class) {
+                for (String volume : volumes) {
+                    leased.remove(daemon + '\n' + volume);
+                    lastUsed.put(daemon + '\n' + volume, now);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import java.io.IOException;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.docker.workflow.client.DockerCommandStatistics;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Shows {@link DockerCommandStatistics#GLOBAL} under <b>Manage Jenkins</b>.
+ */
+@Restricted(NoExternalUse.class)
+@Extension public final class DockerCommandStatisticsLink extends ManagementLink {
+
+    @Override public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override public String getDisplayName() {
+        return "Docker Command Statistics";
+    }
+
+    @Override public String getDescription() {
+        return "Latency of the docker commands run by Docker Pipeline since startup.";
+    }
+
+    @Override public String getUrlName() {
+        return "dockerCommandStatistics";
+    }
+
+    @NonNull
+    @Override public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public DockerCommandStatistics getStatistics() {
+        return DockerCommandStatistics.GLOBAL;
+    }
+
+    @POST public void doReset(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        DockerCommandStatistics.GLOBAL.reset();
+        rsp.sendRedirect(".");
+    }
+
+}
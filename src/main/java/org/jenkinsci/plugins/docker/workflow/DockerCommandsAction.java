@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Action;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jenkinsci.plugins.docker.workflow.client.DockerCommandRecorder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Summarizes the {@code docker} commands run on behalf of a build, shown on the build page.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerCommandsAction implements Action, DockerCommandRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(DockerCommandsAction.class.getName());
+
+    private final Map<String, Summary> commands = new TreeMap<>();
+
+    DockerCommandsAction() {}
+
+    static @NonNull DockerCommandsAction of(@NonNull Run<?, ?> run) {
+        synchronized (run) {
+            DockerCommandsAction action = run.getAction(DockerCommandsAction.class);
+            if (action == null) {
+                action = new DockerCommandsAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    /**
+     * Looks up the action of a build which may no longer exist.
+     * @param run a {@link Run#getExternalizableId}
+     */
+    static @CheckForNull DockerCommandsAction of(@CheckForNull String run) {
+        if (run == null) {
+            return null;
+        }
+        try {
+            Run<?, ?> r = Run.fromExternalizableId(run);
+            return r != null ? of(r) : null;
+        } catch (RuntimeException x) {
+            LOGGER.log(Level.FINE, "could not look up " + run, x);
+            return null;
+        }
+    }
+
+    @Override public synchronized void started(@NonNull String command) {
+        commands.computeIfAbsent(command, k -> new Summary()).started++;
+    }
+
+    @Override public synchronized void record(@NonNull String command, long durationNanos, int status, long outputBytes) {
+        commands.computeIfAbsent(command, k -> new Summary()).add(TimeUnit.NANOSECONDS.toMillis(durationNanos), status, outputBytes);
+    }
+
+    public synchronized @NonNull List<Map.Entry<String, Summary>> getCommands() {
+        List<Map.Entry<String, Summary>> result = new ArrayList<>();
+        for (Map.Entry<String, Summary> entry : commands.entrySet()) {
+            result.add(Map.entry(entry.getKey(), entry.getValue().copy()));
+        }
+        return result;
+    }
+
+    @Override public String getIconFileName() {
+        return null;
+    }
+
+    @Override public String getDisplayName() {
+        return "Docker commands";
+    }
+
+    @Override public String getUrlName() {
+        return null;
+    }
+
+    public static final class Summary {
+
+        private long started;
+        private long count;
+        private long failures;
+        private long totalMillis;
+        private long maxMillis;
+        private long outputBytes;
+
+        void add(long millis, int status, long bytes) {
+            count++;
+            if (status != 0) {
+                failures++;
+            }
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            outputBytes += bytes;
+        }
+
+        Summary copy() {
+            Summary s = new Summary();
+            s.started = started;
+            s.count = count;
+            s.failures = failures;
+            s.totalMillis = totalMillis;
+            s.maxMillis = maxMillis;
+            s.outputBytes = outputBytes;
+            return s;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMeanMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Helpers for {@code docker.withNetwork}, which runs sidecars and {@code inside} containers on one user-defined bridge network.
+ * The network is passed down to nested blocks as {@link #ENV_VAR}.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerNetworks {
+
+    /** Environment variable naming the network containers should join. */
+    public static final String ENV_VAR = "DOCKER_NETWORK";
+
+    private static final Pattern NETWORK_ARG = Pattern.compile("(^|\\s)--net(work)?([\\s=]|$)");
+    private static final Pattern ALIAS_ARG = Pattern.compile("(^|\\s)--network-alias([\\s=]|$)");
+    private static final Pattern INVALID = Pattern.compile("[^a-zA-Z0-9_.-]+");
+
+    private DockerNetworks() {}
+
+    /**
+     * Picks a fresh network name.
+     * @param buildTag {@code BUILD_TAG}, to tell which build a leftover network came from
+     */
+    public static @NonNull String name(@CheckForNull String buildTag) {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        return buildTag != null ? INVALID.matcher(buildTag + '-' + suffix).replaceAll("-") : "jenkins-" + suffix;
+    }
+
+    /**
+     * Adds {@code --network} (and optionally {@code --network-alias}) to {@code docker run} arguments,
+     * unless the user already chose a network there.
+     * @param args user-specified arguments
+     * @param network the network to join, if any
+     * @param alias a name under which other containers on the network should find this one, if any
+     */
+    public static @CheckForNull String args(@CheckForNull String args, @CheckForNull String network, @CheckForNull String alias) {
+        if (network == null || network.isEmpty() || (args != null && NETWORK_ARG.matcher(args).find())) {
+            return args;
+        }
+        StringBuilder b = new StringBuilder("--network ").append(network);
+        if (alias != null && (args == null || !ALIAS_ARG.matcher(args).find())) {
+            b.append(" --network-alias ").append(alias);
+        }
+        if (args != null && !args.isEmpty()) {
+            b.append(' ').append(args);
+        }
+        return b.toString();
+    }
+
+    /**
+     * The default alias of a sidecar: the last component of its repository, so {@code library/postgres:16} is reachable as {@code postgres}.
+     */
+    public static @NonNull String alias(@NonNull String image) {
+        String repo = new ImageNameTokens(image).userAndRepo;
+        int at = repo.indexOf('@');
+        if (at != -1) {
+            repo = repo.substring(0, at);
+        }
+        return repo.substring(repo.lastIndexOf('/') + 1);
+    }
+
+}
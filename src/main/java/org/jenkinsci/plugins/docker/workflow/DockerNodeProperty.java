@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Settings of Docker Pipeline specific to a node, or to all nodes when set in the global node properties.
+ */
+public class DockerNodeProperty extends NodeProperty<Node> {
+
+    /**
+     * How bind mounts of {@code withDockerContainer} are relabeled for SELinux.
+     */
+    public enum Relabel {
+        SHARED("Always relabel with a shared label (z)"),
+        AUTO("Shared label (z) if the Docker daemon has SELinux enabled, else none"),
+        NONE("Never relabel"),
+        PRIVATE("Always relabel with a private label (Z)"),
+        /**
+         * Relies on files created later inheriting the label of the workspace directory,
+         * so does not cover files moved into the workspace from elsewhere on the host, nor other bind mounts.
+         */
+        ONCE("Relabel with a shared label (z) the first time a workspace is used");
+
+        private final String displayName;
+
+        Relabel(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final @NonNull Relabel relabel;
+
+    @DataBoundConstructor public DockerNodeProperty(@CheckForNull Relabel relabel) {
+        this.relabel = relabel != null ? relabel : Relabel.SHARED;
+    }
+
+    @NonNull
+    public Relabel getRelabel() {
+        return relabel;
+    }
+
+    /**
+     * Looks up the relabeling mode of a node, falling back to the global node properties.
+     * Without either, bind mounts keep the shared label they always had.
+     */
+    static @NonNull Relabel relabel(@CheckForNull Node node) {
+        DockerNodeProperty property = node != null ? node.getNodeProperty(DockerNodeProperty.class) : null;
+        if (property == null) {
+            property = Jenkins.get().getGlobalNodeProperties().get(DockerNodeProperty.class);
+        }
+        return property != null ? property.relabel : Relabel.SHARED;
+    }
+
+    @Extension public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Docker Pipeline";
+        }
+
+    }
+
+}
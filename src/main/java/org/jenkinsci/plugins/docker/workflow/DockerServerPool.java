@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.jenkinsci.plugins.docker.commons.credentials.KeyMaterial2;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Picks one Docker server out of a pool given to {@code withDockerServer}.
+ * Servers which do not answer are skipped for a while; of the rest, the one running the fewest containers wins,
+ * unless the job used another one last time which is not much busier, since that one probably has its images already.
+ */
+final class DockerServerPool {
+
+    /**
+     * Seconds for which a server which did not answer is left out, unless no other server answers either.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static long COOLDOWN = Long.getLong(DockerServerPool.class.getName() + ".COOLDOWN", 60);
+
+    /**
+     * How many more running containers than the least busy server the server last used by a job may have and still be kept.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static int STICKY_SLACK = Integer.getInteger(DockerServerPool.class.getName() + ".STICKY_SLACK", 2);
+
+    /**
+     * Seconds to wait for a server to say how many containers it is running before leaving it out.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static int PROBE_TIMEOUT = Integer.getInteger(DockerServerPool.class.getName() + ".PROBE_TIMEOUT", 10);
+
+    private static final int MAX_JOBS = 1000;
+
+    /** URIs of servers which did not answer, with the time until which they are left out. */
+    private static final Map<String, Long> unhealthyUntil = new ConcurrentHashMap<>();
+
+    /** URI of the server last used by each job, least recently used job first. */
+    private static final Map<String, String> lastUsed = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    private DockerServerPool() {}
+
+    /**
+     * Asks each server in the pool how many containers it is running and picks one.
+     * @param toolName the Docker installation used to ask, or null for {@code docker} on the path
+     * @throws AbortException if no server answers
+     */
+    static @NonNull DockerServerEndpoint choose(@NonNull List<DockerServerEndpoint> pool, @NonNull Run<?, ?> run, @NonNull Launcher launcher, @NonNull EnvVars env, @CheckForNull Node node, @CheckForNull String toolName, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        String job = run.getParent().getFullName();
+        String sticky;
+        synchronized (lastUsed) {
+            sticky = lastUsed.get(job);
+        }
+        long now = System.currentTimeMillis();
+        boolean anyAvailable = pool.stream().anyMatch(server -> unhealthyUntil.getOrDefault(server.getUri(), 0L) <= now);
+        DockerClient client = new DockerClient(launcher, node, toolName);
+        VirtualChannel channel = launcher.getChannel();
+        // Probe all servers at once, so that servers which do not answer cost one short timeout rather than one each.
+        Map<DockerServerEndpoint, Future<Probe>> probes = new LinkedHashMap<>();
+        for (DockerServerEndpoint server : pool) {
+            if (anyAvailable && unhealthyUntil.getOrDefault(server.getUri(), 0L) > now) {
+                listener.getLogger().println("Skipping Docker server " + server.getUri() + ", which did not respond recently");
+                continue;
+            }
+            probes.put(server, Computer.threadPoolForRemoting.submit(() -> probe(server, run, channel, client, env)));
+        }
+        DockerServerEndpoint best = null;
+        int bestRunning = Integer.MAX_VALUE;
+        long bestLatency = Long.MAX_VALUE;
+        DockerServerEndpoint previous = null;
+        int previousRunning = 0;
+        try {
+            for (Map.Entry<DockerServerEndpoint, Future<Probe>> entry : probes.entrySet()) {
+                DockerServerEndpoint server = entry.getKey();
+                String uri = server.getUri();
+                Probe probe;
+                try {
+                    probe = entry.getValue().get();
+                } catch (ExecutionException x) {
+                    Throwable cause = x.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+                if (probe.running == null) {
+                    listener.getLogger().println("Docker server " + uri + " did not respond; leaving it out for " + COOLDOWN + "s");
+                    unhealthyUntil.put(uri, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(COOLDOWN));
+                    continue;
+                }
+                int running = probe.running;
+                unhealthyUntil.remove(uri);
+                if (running < bestRunning || running == bestRunning && probe.latency < bestLatency) {
+                    best = server;
+                    bestRunning = running;
+                    bestLatency = probe.latency;
+                }
+                if (uri != null && uri.equals(sticky)) {
+                    previous = server;
+                    previousRunning = running;
+                }
+            }
+        } finally {
+            for (Future<Probe> probe : probes.values()) {
+                probe.cancel(true);
+            }
+        }
+        if (best == null) {
+            throw new AbortException("None of the " + pool.size() + " Docker servers in the pool responded");
+        }
+        DockerServerEndpoint chosen = previous != null && previousRunning <= bestRunning + STICKY_SLACK ? previous : best;
+        synchronized (lastUsed) {
+            lastUsed.put(job, chosen.getUri());
+        }
+        listener.getLogger().println("Using Docker server " + chosen.getUri() + (chosen == previous ? ", as in the last build" : "") + " (" + (chosen == previous ? previousRunning : bestRunning) + " running containers)");
+        return chosen;
+    }
+
+    private static @NonNull Probe probe(@NonNull DockerServerEndpoint server, @NonNull Run<?, ?> run, @CheckForNull VirtualChannel channel, @NonNull DockerClient client, @NonNull EnvVars env) throws IOException, InterruptedException {
+        KeyMaterial2 material = server.newKeyMaterialFactory(run, channel).materialize2();
+        try {
+            EnvVars probeEnv = new EnvVars(env);
+            probeEnv.putAll(material.env());
+            long start = System.nanoTime();
+            Integer running = client.getRunningContainers(probeEnv, PROBE_TIMEOUT);
+            return new Probe(running, System.nanoTime() - start);
+        } finally {
+            material.close(channel);
+        }
+    }
+
+    private static final class Probe {
+
+        /** Containers running on the server, or null if it did not answer. */
+        final @CheckForNull Integer running;
+        final long latency;
+
+        Probe(@CheckForNull Integer running, long latency) {
+            this.running = running;
+            this.latency = latency;
+        }
+
+    }
+
+}
@@ -0,0 +1,504 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.docker.commons.credentials.KeyMaterial2;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Serves a Docker daemon reached over TCP with TLS on a Unix socket of the agent, so that {@code docker} commands in a
+ * {@code withDockerServer} block do not each connect and negotiate TLS from scratch.
+ * The proxy keeps a few connections to the daemon open and ready, and reuses the TLS session for new ones.
+ * The client certificate and key are only read when the proxy starts and afterwards stay in the agent's memory.
+ */
+final class DockerServerProxy {
+
+    private static final Logger LOGGER = Logger.getLogger(DockerServerProxy.class.getName());
+
+    /**
+     * Number of connections to the daemon kept open in advance.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static int SPARE_CONNECTIONS = Integer.getInteger(DockerServerProxy.class.getName() + ".SPARE_CONNECTIONS", 2);
+
+    /**
+     * Seconds after which a connection opened in advance but not used is dropped, before the daemon might.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static long SPARE_TIMEOUT = Long.getLong(DockerServerProxy.class.getName() + ".SPARE_TIMEOUT", 30);
+
+    /**
+     * Environment variable pointing to the socket of the proxy, marking that the daemon is only reachable while the block runs.
+     */
+    static final String ENV_VAR = "JENKINS_DOCKER_PROXY";
+
+    /** Running proxies in this JVM (an agent), by socket path. */
+    private static final Map<String, Proxy> proxies = new ConcurrentHashMap<>();
+
+    private DockerServerProxy() {}
+
+    /**
+     * Starts a proxy for the daemon selected by some key material.
+     * @param material key material pointing to a daemon; closed once the proxy has read the certificates from it
+     * @return key material pointing to the proxy, or null if the daemon is not reached over TLS or the proxy could not start,
+     *         in which case {@code material} remains open
+     */
+    static @CheckForNull KeyMaterial2 start(@NonNull KeyMaterial2 material, @NonNull Launcher launcher, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        EnvVars env = material.env();
+        String host = env.get("DOCKER_HOST");
+        String certPath = env.get("DOCKER_CERT_PATH");
+        if (!launcher.isUnix() || host == null || !host.startsWith("tcp://") || certPath == null || !"1".equals(env.get("DOCKER_TLS_VERIFY"))) {
+            listener.getLogger().println("Not proxying Docker server connections: only possible on Unix for tcp:// servers with credentials");
+            return null;
+        }
+        URI uri = URI.create(host);
+        VirtualChannel channel = launcher.getChannel();
+        String socket;
+        try {
+            socket = channel.call(new Start(uri.getHost(), uri.getPort() != -1 ? uri.getPort() : 2376, certPath));
+        } catch (IOException x) {
+            listener.getLogger().println("Not proxying Docker server connections: " + x.getMessage());
+            return null;
+        }
+        material.close(channel);
+        EnvVars proxied = new EnvVars(env);
+        proxied.remove("DOCKER_TLS_VERIFY");
+        proxied.remove("DOCKER_CERT_PATH");
+        proxied.put("DOCKER_HOST", "unix://" + socket);
+        proxied.put(ENV_VAR, socket);
+        listener.getLogger().println("Proxying connections to " + host + " through " + socket);
+        return new Material(proxied, socket);
+    }
+
+    private static final class Material extends KeyMaterial2 {
+
+        private static final long serialVersionUID = 1;
+
+        private final String socket;
+
+        Material(EnvVars env, String socket) {
+            super(env);
+            this.socket = socket;
+        }
+
+        @Override public void close(VirtualChannel channel) throws IOException, InterruptedException {
+            channel.call(new Stop(socket));
+        }
+
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String host;
+        private final int port;
+        private final String certPath;
+
+        Start(String host, int port, String certPath) {
+            this.host = host;
+            this.port = port;
+            this.certPath = certPath;
+        }
+
+        @Override public String call() throws IOException {
+            SSLContext context = sslContext(Paths.get(certPath));
+            // Unix socket paths are limited to about 100 characters, so workspaces are usually too deep.
+            Path dir = Files.createTempDirectory("jenkins-docker", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Path socket = dir.resolve("docker.sock");
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Proxy proxy = new Proxy(server, dir, context, host, port);
+            proxies.put(socket.toString(), proxy);
+            proxy.start();
+            return socket.toString();
+        }
+
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String socket;
+
+        Stop(String socket) {
+            this.socket = socket;
+        }
+
+        @Override public Void call() throws IOException {
+            Proxy proxy = proxies.remove(socket);
+            if (proxy != null) {
+                proxy.close();
+            }
+            return null;
+        }
+
+    }
+
+    private static final class Spare {
+        final SSLSocket socket;
+        final long opened = System.nanoTime();
+        Spare(SSLSocket socket) {
+            this.socket = socket;
+        }
+    }
+
+    private static final class Proxy extends Thread implements Closeable {
+
+        private final ServerSocketChannel server;
+        private final Path dir;
+        private final SSLContext context;
+        private final String host;
+        private final int port;
+        private final Deque<Spare> spares = new ArrayDeque<>();
+
+        Proxy(ServerSocketChannel server, Path dir, SSLContext context, String host, int port) {
+            super("Docker server proxy to " + host + ":" + port);
+            setDaemon(true);
+            this.server = server;
+            this.dir = dir;
+            this.context = context;
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override public void run() {
+            refill();
+            while (server.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (IOException x) {
+                    if (server.isOpen()) {
+                        LOGGER.log(Level.WARNING, "failed to accept a connection for " + host + ":" + port, x);
+                    }
+                    return;
+                }
+                // Opening a connection may mean a full handshake, which should not hold up accepting the next client.
+                Thread t = new Thread(() -> serve(client), getName() + " (serving)");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        private void serve(SocketChannel client) {
+            SSLSocket upstream;
+            try {
+                upstream = take();
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to connect to " + host + ":" + port, x);
+                closeQuietly(client);
+                return;
+            }
+            try {
+                pipe(in(client), upstream.getOutputStream(), upstream::shutdownOutput, client, upstream);
+                pipe(upstream.getInputStream(), out(client), client::shutdownOutput, client, upstream);
+            } catch (IOException x) {
+                closeQuietly(client);
+                closeQuietly(upstream);
+            }
+            refill();
+        }
+
+        /**
+         * Hands out a connection opened in advance if there is a fresh one, else opens one.
+         */
+        private SSLSocket take() throws IOException {
+            synchronized (spares) {
+                Spare spare;
+                while ((spare = spares.pollFirst()) != null) {
+                    if (System.nanoTime() - spare.opened < TimeUnit.SECONDS.toNanos(SPARE_TIMEOUT) && !spare.socket.isClosed()) {
+                        return spare.socket;
+                    }
+                    closeQuietly(spare.socket);
+                }
+            }
+            return connect();
+        }
+
+        private void refill() {
+            Thread t = new Thread(() -> {
+                while (server.isOpen()) {
+                    synchronized (spares) {
+                        if (spares.size() >= SPARE_CONNECTIONS) {
+                            return;
+                        }
+                    }
+                    try {
+                        SSLSocket socket = connect();
+                        synchronized (spares) {
+                            spares.addLast(new Spare(socket));
+                        }
+                    } catch (IOException x) {
+                        LOGGER.log(Level.FINE, "failed to connect to " + host + ":" + port + " in advance", x);
+                        return;
+                    }
+                }
+            }, getName() + " (connecting)");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /**
+         * Connects and completes the handshake, which is abbreviated after the first time since the session is cached by {@link #context}.
+         */
+        private SSLSocket connect() throws IOException {
+            SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port);
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            return socket;
+        }
+
+        private interface HalfClose {
+            void run() throws IOException;
+        }
+
+        /**
+         * Copies one direction of a connection on a new thread, passing on end of stream where possible.
+         */
+        private void pipe(InputStream in, OutputStream out, HalfClose eof, Closeable client, Closeable upstream) {
+            Thread t = new Thread(() -> {
+                byte[] buf = new byte[8192];
+                try {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                        out.flush();
+                    }
+                    try {
+                        eof.run();
+                        return;
+                    } catch (IOException | UnsupportedOperationException x) {
+                        // cannot half-close, so close entirely
+                    }
+                } catch (IOException x) {
+                    LOGGER.log(Level.FINE, null, x);
+                }
+                closeQuietly(client);
+                closeQuietly(upstream);
+            }, getName() + " (copying)");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override public void close() throws IOException {
+            server.close();
+            synchronized (spares) {
+                for (Spare spare : spares) {
+                    closeQuietly(spare.socket);
+                }
+                spares.clear();
+            }
+            Util.deleteRecursive(dir.toFile());
+        }
+
+    }
+
+    /**
+     * Reads from a channel directly, since {@link Channels#newInputStream} would block writes from another thread during a read.
+     */
+    private static InputStream in(SocketChannel channel) {
+        return new InputStream() {
+            @Override public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    private static OutputStream out(SocketChannel channel) {
+        return new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+        };
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, null, x);
+        }
+    }
+
+    private static final Pattern PEM = Pattern.compile("-----BEGIN ([A-Z ]+)-----([^-]+)-----END \\1-----");
+
+    /**
+     * Builds a TLS context from a directory as used by {@code DOCKER_CERT_PATH}, with {@code key.pem}, {@code cert.pem} and {@code ca.pem}.
+     */
+    static @NonNull SSLContext sslContext(@NonNull Path certPath) throws IOException {
+        try {
+            CertificateFactory certificates = CertificateFactory.getInstance("X.509");
+            List<Certificate> chain = new ArrayList<>(certificates.generateCertificates(new ByteArrayInputStream(Files.readAllBytes(certPath.resolve("cert.pem")))));
+            KeyStore keys = KeyStore.getInstance("PKCS12");
+            keys.load(null, null);
+            char[] password = new char[0];
+            keys.setKeyEntry("client", privateKey(Files.readString(certPath.resolve("key.pem"), StandardCharsets.US_ASCII)), password, chain.toArray(new Certificate[0]));
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keys, password);
+            KeyStore trust = KeyStore.getInstance("PKCS12");
+            trust.load(null, null);
+            int i = 0;
+            for (Certificate ca : certificates.generateCertificates(new ByteArrayInputStream(Files.readAllBytes(certPath.resolve("ca.pem"))))) {
+                trust.setCertificateEntry("ca" + i++, ca);
+            }
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trust);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException x) {
+            throw new IOException("could not load the client certificate: " + x.getMessage(), x);
+        }
+    }
+
+    /**
+     * Reads a PEM private key, either PKCS#8 ({@code PRIVATE KEY}) or PKCS#1 RSA ({@code RSA PRIVATE KEY}) as generated by OpenSSL.
+     */
+    static @NonNull PrivateKey privateKey(@NonNull String pem) throws GeneralSecurityException {
+        Matcher m = PEM.matcher(pem);
+        if (!m.find()) {
+            throw new InvalidKeySpecException("no PEM private key found");
+        }
+        byte[] der = Base64.getMimeDecoder().decode(m.group(2));
+        switch (m.group(1)) {
+            case "PRIVATE KEY":
+                for (String algorithm : new String[] {"RSA", "EC"}) {
+                    try {
+                        return KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(der));
+                    } catch (InvalidKeySpecException x) {
+                        // try the next one
+                    }
+                }
+                throw new InvalidKeySpecException("unsupported private key algorithm");
+            case "RSA PRIVATE KEY":
+                return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(rsaPkcs8(der)));
+            default:
+                throw new InvalidKeySpecException("unsupported private key type " + m.group(1));
+        }
+    }
+
+    /** AlgorithmIdentifier for rsaEncryption (1.2.840.113549.1.1.1) with NULL parameters. */
+    private static final byte[] RSA_ALGORITHM = {0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00};
+
+    /**
+     * Wraps a PKCS#1 RSA key into a PKCS#8 structure: {@code SEQUENCE { INTEGER 0, AlgorithmIdentifier, OCTET STRING pkcs1 }}.
+     */
+    static byte[] rsaPkcs8(byte[] pkcs1) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x02);
+        body.write(0x01);
+        body.write(0x00);
+        body.writeBytes(RSA_ALGORITHM);
+        body.write(0x04);
+        writeLength(body, pkcs1.length);
+        body.writeBytes(pkcs1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x30);
+        writeLength(out, body.size());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (8 * i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+/**
+ * Records when each phase of the containers of a build ran: probing the daemon, pulling, {@code docker run}, the body, removal.
+ * Phases are kept as lines of text, appended as they finish, so that {@code build.xml} only gains a single string.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerTimelineAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(DockerTimelineAction.class.getName());
+
+    /**
+     * One line per phase: {@code start\tduration\tphase\tsubject},
+     * with times in milliseconds and {@code start} relative to {@link Run#getStartTimeInMillis}.
+     */
+    private final StringBuilder phases = new StringBuilder();
+
+    private transient Run<?, ?> run;
+
+    DockerTimelineAction() {}
+
+    /**
+     * Records a finished phase.
+     * @param run the build, if known
+     * @param phase e.g. {@code pull}
+     * @param subject the image or container concerned
+     * @param start wall-clock start time
+     * @param end wall-clock end time
+     */
+    static void record(@CheckForNull Run<?, ?> run, @NonNull String phase, @NonNull String subject, long start, long end) {
+        if (run == null) {
+            return;
+        }
+        DockerTimelineAction action;
+        synchronized (run) {
+            action = run.getAction(DockerTimelineAction.class);
+            if (action == null) {
+                action = new DockerTimelineAction();
+                run.addAction(action);
+            }
+        }
+        action.add(start - run.getStartTimeInMillis(), end - start, phase, subject);
+    }
+
+    /**
+     * Whether a phase has been recorded already, for phases which should only be recorded once even across restarts.
+     */
+    static boolean contains(@NonNull Run<?, ?> run, @NonNull String phase, @NonNull String subject) {
+        DockerTimelineAction action = run.getAction(DockerTimelineAction.class);
+        return action != null && action.contains(clean(phase) + '\t' + clean(subject) + '\n');
+    }
+
+    private synchronized boolean contains(String suffix) {
+        return phases.indexOf('\t' + suffix) != -1;
+    }
+
+    private synchronized void add(long start, long duration, String phase, String subject) {
+        phases.append(start).append('\t').append(Math.max(0, duration)).append('\t')
+            .append(clean(phase)).append('\t').append(clean(subject)).append('\n');
+    }
+
+    private static String clean(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    public synchronized @NonNull List<Phase> getPhases() {
+        List<Phase> result = new ArrayList<>();
+        for (String line : phases.toString().split("\n")) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length == 4) {
+                try {
+                    result.add(new Phase(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], fields[3]));
+                } catch (NumberFormatException x) {
+                    LOGGER.log(Level.WARNING, "malformed timeline entry in " + run + ": " + line, x);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the end of the last phase, relative to the build start
+     */
+    public long getSpan() {
+        long span = 1;
+        for (Phase p : getPhases()) {
+            span = Math.max(span, p.start + p.duration);
+        }
+        return span;
+    }
+
+    public void doJson(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        JSONArray array = new JSONArray();
+        for (Phase p : getPhases()) {
+            JSONObject o = new JSONObject();
+            o.put("phase", p.phase);
+            o.put("subject", p.subject);
+            o.put("start", run.getStartTimeInMillis() + p.start);
+            o.put("end", run.getStartTimeInMillis() + p.start + p.duration);
+            array.add(o);
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(array.toString(2));
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override public String getDisplayName() {
+        return "Docker Timeline";
+    }
+
+    @Override public String getUrlName() {
+        return "dockerTimeline";
+    }
+
+    public static final class Phase {
+
+        private final long start;
+        private final long duration;
+        private final String phase;
+        private final String subject;
+
+        Phase(long start, long duration, String phase, String subject) {
+            this.start = start;
+            this.duration = duration;
+            this.phase = phase;
+            this.subject = subject;
+        }
+
+        /** Milliseconds since the build started. */
+        public long getStart() {
+            return start;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for launching a process inside a {@link WithContainerStep} container through {@code docker exec}.
+ * Covers only the launch, not the lifetime of the process.
+ */
+@Name("org.jenkinsci.plugins.docker.workflow.Exec")
+@Label("Docker Exec Launch")
+@Category({"Jenkins", "Docker Pipeline"})
+@Description("Launch of a process inside a withDockerContainer container")
+final class ExecEvent extends jdk.jfr.Event {
+
+    @Label("Container ID")
+    String container;
+
+    @Label("Executable")
+    @Description("The program started in the container, without its arguments")
+    String executable;
+
+    @Label("Environment Variables")
+    int environmentSize;
+
+}
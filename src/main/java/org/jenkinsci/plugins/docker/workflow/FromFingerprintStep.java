@@ -112,6 +112,7 @@ public class FromFingerprintStep extends AbstractStepImpl {
                 fromImage = Util.replaceMacro(fromImage, buildArgs);
             }
             DockerClient client = new DockerClient(launcher, node, step.toolName);
+            client.setBuildRecorder(DockerCommandsAction.of(run));
             String descendantImageId = client.inspectRequiredField(env, step.image, FIELD_ID);
             if (fromImage.equals("scratch")) { // we just made a base image
                 DockerFingerprints.addFromFacet(null, descendantImageId, run);
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers which nodes recently ran containers of which images, so that Declarative {@code docker} agents
+ * can be sent to a node which most likely has the image already rather than one which would have to pull it.
+ * Kept in one file for the controller rather than in node properties, so that starting a container does not rewrite the node configuration.
+ * <p>This narrows the label of the agent rather than being a mere preference of the scheduler:
+ * the stage is only sent to a warm node when one is idle as it is scheduled,
+ * but if that node takes other work in the meantime, the stage waits for it rather than going to another node.
+ */
+@Restricted(NoExternalUse.class)
+public final class ImageLocality {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageLocality.class.getName());
+
+    /**
+     * Set to false to stop preferring nodes which have run an image before.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static boolean ENABLED = Boolean.parseBoolean(System.getProperty(ImageLocality.class.getName() + ".ENABLED", "true"));
+
+    private static final int MAX_IMAGES = 500;
+    private static final int MAX_NODES_PER_IMAGE = 50;
+
+    /** Time (in milliseconds) to wait before saving, so that containers started together are saved at once. */
+    private static final long SAVE_DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Set<String> DOCKER_HUB = Set.of("docker.io", "index.docker.io", "registry-1.docker.io");
+
+    /** Names of nodes by image, least recently used image first and most recent node last. */
+    private static final Map<String, Set<String>> nodesByImage = new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    /** Whether a save is pending; guarded by {@link #nodesByImage}. */
+    private static boolean saveScheduled;
+
+    private ImageLocality() {}
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void load() {
+        XmlFile file = getConfigFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Object data = file.read();
+            if (!(data instanceof Map)) {
+                return;
+            }
+            synchronized (nodesByImage) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) data).entrySet()) {
+                    if (entry.getKey() instanceof String && entry.getValue() instanceof List) {
+                        Set<String> nodes = new LinkedHashSet<>();
+                        for (Object node : (List<?>) entry.getValue()) {
+                            nodes.add(String.valueOf(node));
+                        }
+                        nodesByImage.put((String) entry.getKey(), nodes);
+                    }
+                }
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to load " + file, x);
+        }
+    }
+
+    /**
+     * Forgets all images, as for tests.
+     */
+    static void clear() {
+        synchronized (nodesByImage) {
+            nodesByImage.clear();
+        }
+    }
+
+    private static void save() {
+        Map<String, List<String>> data = new LinkedHashMap<>();
+        synchronized (nodesByImage) {
+            saveScheduled = false;
+            for (Map.Entry<String, Set<String>> entry : nodesByImage.entrySet()) {
+                data.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+        try {
+            getConfigFile().write(data);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, null, x);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), ImageLocality.class.getName() + ".xml"));
+    }
+
+    /**
+     * Spells out the registry, repository and tag of an image reference,
+     * so that {@code maven:3} and {@code docker.io/library/maven:3} are the same image
+     * while {@code bitnami/maven:3} and {@code registry.example.com/maven:3} are different ones.
+     */
+    static @NonNull String canonical(@NonNull String image) {
+        String registry = "docker.io";
+        String name = image;
+        int slash = name.indexOf('/');
+        if (slash != -1) {
+            String first = name.substring(0, slash);
+            if (first.contains(".") || first.contains(":") || first.equals("localhost")) {
+                registry = DOCKER_HUB.contains(first) ? "docker.io" : first;
+                name = name.substring(slash + 1);
+            }
+        }
+        if (registry.equals("docker.io") && name.indexOf('/') == -1) {
+            name = "library/" + name;
+        }
+        if (name.indexOf('@') == -1 && name.lastIndexOf(':') < name.lastIndexOf('/') + 1) {
+            name += ":latest";
+        }
+        return registry + '/' + name;
+    }
+
+    /**
+     * Notes that a container of an image was just started on a node.
+     */
+    static void record(@CheckForNull Node node, @NonNull String image) {
+        if (node == null) {
+            return;
+        }
+        String name = node.getSelfLabel().getName();
+        synchronized (nodesByImage) {
+            Set<String> nodes = nodesByImage.computeIfAbsent(canonical(image), k -> new LinkedHashSet<>());
+            nodes.remove(name);
+            nodes.add(name);
+            if (nodes.size() > MAX_NODES_PER_IMAGE) {
+                nodes.remove(nodes.iterator().next());
+            }
+            if (!saveScheduled) {
+                saveScheduled = true;
+                Timer.get().schedule(ImageLocality::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Narrows a label expression to those nodes which have run an image and could take a task right now.
+     * The result is a hard constraint: should all those nodes become busy before the task gets to run,
+     * it waits for one of them to be free again.
+     * @param label a label expression, or null for any node
+     * @param image an image name, including the registry containers are run from unless Docker Hub
+     * @return {@code label} unless some node qualifies
+     */
+    public static @CheckForNull String preferredLabel(@CheckForNull String label, @CheckForNull String image) {
+        if (!ENABLED || image == null) {
+            return label;
+        }
+        Set<String> candidates;
+        synchronized (nodesByImage) {
+            candidates = new LinkedHashSet<>(nodesByImage.getOrDefault(canonical(image), Collections.emptySet()));
+        }
+        if (candidates.isEmpty()) {
+            return label;
+        }
+        Label base;
+        try {
+            base = label != null ? Label.parseExpression(label) : null;
+        } catch (IllegalArgumentException x) {
+            return label;
+        }
+        Jenkins j = Jenkins.get();
+        List<String> preferred = new ArrayList<>();
+        List<String> names = new ArrayList<>(candidates);
+        Collections.reverse(names); // most recent first
+        for (String name : names) {
+            Node node = name.equals(j.getSelfLabel().getName()) ? j : j.getNode(name);
+            if (node == null) {
+                continue;
+            }
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || !computer.isAcceptingTasks() || computer.countIdle() == 0) {
+                continue;
+            }
+            if (base != null ? !base.matches(node) : node.getMode() == Node.Mode.EXCLUSIVE) {
+                // Also do not use nodes reserved for jobs tied to them when any node was asked for.
+                continue;
+            }
+            preferred.add(LabelAtom.escape(name));
+        }
+        if (preferred.isEmpty()) {
+            return label;
+        }
+        String nodes = String.join(" || ", preferred);
+        return label != null ? "(" + label + ") && (" + nodes + ")" : nodes;
+    }
+
+}
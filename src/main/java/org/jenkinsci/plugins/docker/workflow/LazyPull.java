@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Recognizes Docker daemons whose snapshotter fetches image contents on demand,
+ * so that a container can start long before a large image would have been pulled in full.
+ * Used by {@code Image.inside(lazyPull: true)} to skip the separate {@code docker pull}
+ * once {@code withDockerContainer} has found such a daemon on the node, which saves asking it again in a durable task.
+ */
+@Restricted(NoExternalUse.class)
+public final class LazyPull {
+
+    /**
+     * Maximum amount of time (in seconds) to wait for {@code docker run} of a container started with {@code lazyPull},
+     * which may have to pull the image itself.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static int RUN_TIMEOUT = Integer.getInteger(LazyPull.class.getName() + ".RUN_TIMEOUT", 900);
+
+    /** Storage driver names, as reported by {@code docker info}, of snapshotters which pull lazily. */
+    private static final String[] SNAPSHOTTERS = {"stargz", "soci", "nydus"};
+
+    /** Whether the daemon pulls lazily, by node name and {@code DOCKER_HOST}, as last found by {@code withDockerContainer}. */
+    private static final Map<String, Boolean> daemons = new ConcurrentHashMap<>();
+
+    private LazyPull() {}
+
+    /**
+     * Remembers the storage driver of a daemon.
+     * @param node the {@code NODE_NAME} of the agent
+     * @param dockerHost its {@code DOCKER_HOST}, or null for the default daemon
+     * @param driver as passed to {@link #isLazy(String)}
+     */
+    static void record(@CheckForNull String node, @CheckForNull String dockerHost, @CheckForNull String driver) {
+        daemons.put(node + '\n' + dockerHost, isLazy(driver));
+    }
+
+    /**
+     * @param node the {@code NODE_NAME} of the agent
+     * @param dockerHost its {@code DOCKER_HOST}, or null for the default daemon
+     * @return true only if the daemon was last found to pull lazily
+     */
+    public static boolean isLazy(@CheckForNull String node, @CheckForNull String dockerHost) {
+        return daemons.getOrDefault(node + '\n' + dockerHost, false);
+    }
+
+    /**
+     * @param driver the storage driver of a daemon, or null if unknown
+     */
+    public static boolean isLazy(@CheckForNull String driver) {
+        if (driver == null) {
+            return false;
+        }
+        String name = driver.trim().toLowerCase(Locale.ENGLISH);
+        for (String snapshotter : SNAPSHOTTERS) {
+            if (name.contains(snapshotter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Periodically removes containers started by {@link WithContainerStep} whose build is no longer running.
+ * Such containers are normally removed when their block exits,
+ * but may be left behind if the controller crashes or the agent is disconnected at that moment.
+ * Only containers carrying the {@link #LABEL_INSTANCE} label of this controller are considered,
+ * and only on the default Docker daemon of each online Unix agent.
+ */
+@Restricted(NoExternalUse.class)
+@Extension public final class OrphanedContainerCollector extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(OrphanedContainerCollector.class.getName());
+
+    static final String LABEL_JOB = "org.jenkinsci.plugins.docker.workflow.job";
+    static final String LABEL_BUILD = "org.jenkinsci.plugins.docker.workflow.build";
+    static final String LABEL_INSTANCE = "org.jenkinsci.plugins.docker.workflow.instance";
+
+    /**
+     * Set to false to disable removal of orphaned containers.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static boolean ENABLED = Boolean.parseBoolean(System.getProperty(OrphanedContainerCollector.class.getName() + ".ENABLED", "true"));
+
+    /**
+     * Time (in milliseconds) between checks for orphaned containers.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    public static long RECURRENCE_PERIOD = Long.getLong(OrphanedContainerCollector.class.getName() + ".RECURRENCE_PERIOD", TimeUnit.HOURS.toMillis(1));
+
+    public OrphanedContainerCollector() {
+        super("Orphaned Docker container collector");
+    }
+
+    @Override public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    /**
+     * Labels to set on a container started on behalf of a build.
+     */
+    static Map<String, String> labels(@NonNull Run<?, ?> run) {
+        Map<String, String> labels = new HashMap<>();
+        labels.put(LABEL_JOB, run.getParent().getFullName());
+        labels.put(LABEL_BUILD, Integer.toString(run.getNumber()));
+        labels.put(LABEL_INSTANCE, Jenkins.get().getLegacyInstanceId());
+        return labels;
+    }
+
+    /**
+     * Labels as {@code key=value} for {@code docker run --label}, used by {@code Image.run} which starts its containers from a shell step.
+     * @param job {@code JOB_NAME} of the build
+     * @param build {@code BUILD_NUMBER} of the build
+     */
+    @Restricted(NoExternalUse.class)
+    public static @NonNull List<String> labelArgs(@NonNull String job, @NonNull String build) {
+        return Arrays.asList(LABEL_JOB + "=" + job, LABEL_BUILD + "=" + build, LABEL_INSTANCE + "=" + Jenkins.get().getLegacyInstanceId());
+    }
+
+    @Override protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (!ENABLED) {
+            return;
+        }
+        Jenkins j = Jenkins.get();
+        List<Node> nodes = new ArrayList<>(j.getNodes());
+        nodes.add(j);
+        for (Node node : nodes) {
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline()) {
+                continue;
+            }
+            try {
+                collect(node, computer, listener);
+            } catch (IOException x) {
+                // Typically there is simply no Docker on this node.
+                LOGGER.log(Level.FINE, "could not check for orphaned containers on " + node.getDisplayName(), x);
+            }
+        }
+    }
+
+    private static void collect(Node node, Computer computer, TaskListener listener) throws IOException, InterruptedException {
+        Launcher launcher = node.createLauncher(listener);
+        if (!launcher.isUnix()) {
+            return;
+        }
+        EnvVars env = computer.getEnvironment();
+        DockerClient client = new DockerClient(launcher, node, null);
+        Map<String, List<String>> containers = client.listContainers(env, LABEL_INSTANCE + "=" + Jenkins.get().getLegacyInstanceId(), LABEL_JOB, LABEL_BUILD);
+        List<String> orphans = new ArrayList<>();
+        for (Map.Entry<String, List<String>> container : containers.entrySet()) {
+            if (!isBuilding(container.getValue().get(0), container.getValue().get(1))) {
+                orphans.add(container.getKey());
+            }
+        }
+        if (!orphans.isEmpty()) {
+            listener.getLogger().println("Removing " + orphans.size() + " orphaned containers on " + node.getDisplayName());
+            client.rm(env, orphans);
+        }
+    }
+
+    private static boolean isBuilding(String job, String build) {
+        Job<?, ?> parent = Jenkins.get().getItemByFullName(job, Job.class);
+        if (parent == null) {
+            return false;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(build);
+        } catch (NumberFormatException x) {
+            return false;
+        }
+        Run<?, ?> run = parent.getBuildByNumber(number);
+        return run != null && run.isLogUpdated();
+    }
+
+}
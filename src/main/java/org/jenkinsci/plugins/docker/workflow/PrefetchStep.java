@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Starts pulling images which are not yet present on the current node, without waiting for the pulls to complete.
+ * Used by Declarative Pipeline to warm up images of later stages while earlier stages run.
+ */
+public class PrefetchStep extends Step {
+
+    private static final Logger LOGGER = Logger.getLogger(PrefetchStep.class.getName());
+
+    private final @NonNull List<String> images;
+    private String toolName;
+
+    @DataBoundConstructor public PrefetchStep(@NonNull List<String> images) {
+        this.images = new ArrayList<>(images);
+    }
+
+    @NonNull
+    public List<String> getImages() {
+        return images;
+    }
+
+    public String getToolName() {
+        return toolName;
+    }
+
+    @DataBoundSetter public void setToolName(String toolName) {
+        this.toolName = Util.fixEmpty(toolName);
+    }
+
+    @Override public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private transient final PrefetchStep step;
+
+        Execution(PrefetchStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override protected Void run() throws Exception {
+            Launcher launcher = getContext().get(Launcher.class);
+            EnvVars env = getContext().get(EnvVars.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            DockerClient client = new DockerClient(launcher, getContext().get(Node.class), step.toolName);
+            for (String image : step.images) {
+                if (client.inspect(env, image, ".Id") != null) {
+                    // Already present; do not refresh a floating tag behind the back of a running build.
+                    continue;
+                }
+                listener.getLogger().println("Pulling " + image + " in the background");
+                Proc proc = client.startPull(env, image);
+                Timer.get().submit(() -> join(proc, image, listener));
+            }
+            return null;
+        }
+
+        /**
+         * Waits for a pull and reports a failure in the build log, which explains why a later stage pulls the image again.
+         */
+        private static void join(Proc proc, String image, TaskListener listener) {
+            try {
+                int status = proc.join();
+                if (status == 0) {
+                    LOGGER.log(Level.FINE, "pulled {0}", image);
+                } else {
+                    LOGGER.log(Level.WARNING, "background pull of {0} failed with exit code {1}", new Object[] {image, status});
+                    listener.getLogger().println("Background pull of " + image + " failed with exit code " + status + "; stages using it will pull it themselves");
+                }
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "background pull of " + image + " failed", x);
+                listener.getLogger().println("Background pull of " + image + " failed: " + x.getMessage() + "; stages using it will pull it themselves");
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    @Extension public static class DescriptorImpl extends StepDescriptor {
+
+        @Override public String getFunctionName() {
+            return "dockerPrefetch";
+        }
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Pull Docker images in the background";
+        }
+
+        @Override public boolean isAdvanced() {
+            return true;
+        }
+
+        @Override public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Launcher.class, Node.class, EnvVars.class, TaskListener.class);
+        }
+
+    }
+
+}
@@ -24,34 +24,88 @@
 package org.jenkinsci.plugins.docker.workflow;
 
 import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Node;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import java.io.IOException;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.jenkinsci.plugins.docker.commons.credentials.KeyMaterial2;
 import org.jenkinsci.plugins.docker.commons.credentials.KeyMaterialFactory;
+import org.jenkinsci.plugins.structs.describable.CustomDescribableModel;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public class ServerEndpointStep extends Step {
     
-    private final @NonNull DockerServerEndpoint server;
-
-    @DataBoundConstructor public ServerEndpointStep(@NonNull DockerServerEndpoint server) {
-        this.server = Objects.requireNonNull(server, "server must not be null");;
+    private final @CheckForNull DockerServerEndpoint server;
+    private @NonNull List<DockerServerEndpoint> pool = Collections.emptyList();
+    private @CheckForNull String toolName;
+    private boolean proxy;
+
+    /**
+     * @param server the server to use, or null to pick one from {@link #setPool}
+     */
+    @DataBoundConstructor public ServerEndpointStep(@CheckForNull DockerServerEndpoint server) {
+        this.server = server;
     }
 
-    @NonNull
+    @CheckForNull
     public DockerServerEndpoint getServer() {
         return server;
     }
 
+    @NonNull
+    public List<DockerServerEndpoint> getPool() {
+        return pool;
+    }
+
+    /**
+     * Servers to choose from when no single {@link #getServer} is given.
+     */
+    @DataBoundSetter public void setPool(List<DockerServerEndpoint> pool) {
+        this.pool = pool != null ? new ArrayList<>(pool) : Collections.emptyList();
+    }
+
+    @CheckForNull
+    public String getToolName() {
+        return toolName;
+    }
+
+    /**
+     * The Docker installation used to check on servers in the {@link #setPool}.
+     */
+    @DataBoundSetter public void setToolName(String toolName) {
+        this.toolName = Util.fixEmpty(toolName);
+    }
+
+    public boolean isProxy() {
+        return proxy;
+    }
+
+    /**
+     * Whether to reach a server over TLS through {@link DockerServerProxy}.
+     */
+    @DataBoundSetter public void setProxy(boolean proxy) {
+        this.proxy = proxy;
+    }
+
     @Override public StepExecution start(StepContext context) throws Exception {
         return new Execution2(this, context);
     }
@@ -68,7 +122,20 @@ public class ServerEndpointStep extends Step {
         }
 
         @Override protected KeyMaterialFactory newKeyMaterialFactory() throws IOException, InterruptedException {
-            return step.server.newKeyMaterialFactory(getContext().get(Run.class), getContext().get(FilePath.class).getChannel());
+            Run<?, ?> run = getContext().get(Run.class);
+            DockerServerEndpoint server = step.server;
+            if (server == null) {
+                server = DockerServerPool.choose(step.pool, run, getContext().get(Launcher.class), getContext().get(EnvVars.class), getContext().get(Node.class), step.toolName, getContext().get(TaskListener.class));
+            }
+            return server.newKeyMaterialFactory(run, getContext().get(FilePath.class).getChannel());
+        }
+
+        @Override protected KeyMaterial2 decorate(KeyMaterial2 material) throws IOException, InterruptedException {
+            if (!step.proxy) {
+                return material;
+            }
+            KeyMaterial2 proxied = DockerServerProxy.start(material, getContext().get(Launcher.class), getContext().get(TaskListener.class));
+            return proxied != null ? proxied : material;
         }
 
     }
@@ -81,7 +148,7 @@ public class ServerEndpointStep extends Step {
 
     }
 
-    @Extension public static class DescriptorImpl extends StepDescriptor {
+    @Extension public static class DescriptorImpl extends StepDescriptor implements CustomDescribableModel {
 
         @Override public String getFunctionName() {
             return "withDockerServer";
@@ -100,8 +167,32 @@ public class ServerEndpointStep extends Step {
             return true;
         }
 
+        @Override public Map<String, Object> customInstantiate(Map<String, Object> arguments) {
+            Object pool = arguments.get("pool");
+            if (pool == null) {
+                if (!arguments.containsKey("server")) {
+                    throw new IllegalArgumentException("must specify server (or pool)");
+                }
+                return arguments;
+            }
+            if (arguments.containsKey("server")) {
+                throw new IllegalArgumentException("cannot mix server with pool");
+            }
+            if (!(pool instanceof List) || ((List<?>) pool).isEmpty()) {
+                throw new IllegalArgumentException("pool must be a nonempty list of servers");
+            }
+            // Allow plain URIs: pool: ['tcp://a:2376', 'tcp://b:2376']
+            List<Object> servers = new ArrayList<>();
+            for (Object server : (List<?>) pool) {
+                servers.add(server instanceof CharSequence ? Collections.singletonMap("uri", server.toString()) : server);
+            }
+            arguments = new HashMap<>(arguments);
+            arguments.put("pool", servers);
+            return arguments;
+        }
+
         @Override public Set<? extends Class<?>> getRequiredContext() {
-            return ImmutableSet.of(Run.class, FilePath.class);
+            return ImmutableSet.of(Run.class, FilePath.class, Launcher.class, EnvVars.class, Node.class, TaskListener.class);
         }
 
         // TODO allow DockerServerEndpoint fields to be inlined, as in RegistryEndpointStep, so Docker.groovy can say simply: script.withDockerServer(uri: uri, credentialsId: credentialsId) {…}
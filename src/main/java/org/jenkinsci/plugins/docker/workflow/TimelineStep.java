@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Adds a finished phase to the {@link DockerTimelineAction} of the build.
+ * Used by {@code docker.image(…).inside} and friends, which cannot reach the build itself.
+ */
+public class TimelineStep extends Step {
+
+    private final @NonNull String phase;
+    private final @NonNull String subject;
+    private final long start;
+    private final long end;
+
+    /**
+     * @param phase e.g. {@code pull}
+     * @param subject the image or container concerned
+     * @param start wall-clock start time, in milliseconds
+     * @param end wall-clock end time, in milliseconds
+     */
+    @DataBoundConstructor public TimelineStep(@NonNull String phase, @NonNull String subject, long start, long end) {
+        this.phase = phase;
+        this.subject = subject;
+        this.start = start;
+        this.end = end;
+    }
+
+    @NonNull
+    public String getPhase() {
+        return phase;
+    }
+
+    @NonNull
+    public String getSubject() {
+        return subject;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    @Override public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private transient final TimelineStep step;
+
+        Execution(TimelineStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override protected Void run() throws Exception {
+            // Only touches the in-memory action, so there is no need for another thread.
+            DockerTimelineAction.record(getContext().get(Run.class), step.phase, step.subject, step.start, step.end);
+            return null;
+        }
+
+    }
+
+    @Extension public static class DescriptorImpl extends StepDescriptor {
+
+        @Override public String getFunctionName() {
+            return "dockerTimeline";
+        }
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Record a phase in the Docker timeline of the build";
+        }
+
+        @Override public boolean isAdvanced() {
+            return true;
+        }
+
+        @Override public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class);
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.jenkinsci.plugins.docker.workflow.client.WindowsDockerClient;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Waits until a container is ready to serve: healthy according to its {@code HEALTHCHECK},
+ * or else accepting TCP connections on a given port.
+ * Used by {@code docker.withRuns}.
+ */
+public class WaitForContainerStep extends Step {
+
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    private final @NonNull String containerId;
+    private int port;
+    private int timeout = 300;
+    private String toolName;
+
+    @DataBoundConstructor public WaitForContainerStep(@NonNull String containerId) {
+        this.containerId = containerId;
+    }
+
+    @NonNull
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port a TCP port in the container to probe when the image has no {@code HEALTHCHECK}, or 0 to not wait
+     */
+    @DataBoundSetter public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout seconds to wait before failing
+     */
+    @DataBoundSetter public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public String getToolName() {
+        return toolName;
+    }
+
+    @DataBoundSetter public void setToolName(String toolName) {
+        this.toolName = Util.fixEmpty(toolName);
+    }
+
+    @Override public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private transient final WaitForContainerStep step;
+
+        Execution(WaitForContainerStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override protected Void run() throws Exception {
+            Launcher launcher = getContext().get(Launcher.class);
+            EnvVars env = getContext().get(EnvVars.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            Node node = getContext().get(Node.class);
+            DockerClient client = launcher.isUnix()
+                ? new DockerClient(launcher, node, step.toolName)
+                : new WindowsDockerClient(launcher, node, step.toolName);
+            Run<?, ?> run = getContext().get(Run.class);
+            if (run != null) {
+                client.setBuildRecorder(DockerCommandsAction.of(run));
+            }
+            long start = System.currentTimeMillis();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(step.timeout);
+            long delay = 250;
+            InetSocketAddress address = null;
+            while (true) {
+                String health = client.getHealth(env, step.containerId);
+                boolean ready;
+                switch (health) {
+                case "stopped":
+                    throw new AbortException("Container " + step.containerId + " is not running");
+                case "healthy":
+                    ready = true;
+                    break;
+                case "none":
+                    if (step.port == 0) {
+                        ready = true;
+                    } else {
+                        if (address == null) {
+                            address = address(client, env);
+                        }
+                        VirtualChannel channel = getContext().get(FilePath.class).getChannel();
+                        if (channel == null) {
+                            throw new AbortException("Cannot probe container " + step.containerId + " on " + address + ": the agent is offline");
+                        }
+                        ready = channel.call(new Probe(address));
+                        health = "not listening on " + address;
+                    }
+                    break;
+                default:
+                    ready = false;
+                }
+                if (ready) {
+                    listener.getLogger().println("Container " + step.containerId + " is ready");
+                    DockerTimelineAction.record(run, "ready", step.containerId, start, System.currentTimeMillis());
+                    return null;
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new AbortException("Container " + step.containerId + " was not ready within " + step.timeout + " seconds (" + health + ")");
+                }
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_DELAY);
+            }
+        }
+
+        /**
+         * Prefers the published port, which is also reachable when the Docker daemon is remote or in a VM.
+         */
+        private @NonNull InetSocketAddress address(DockerClient client, EnvVars env) throws IOException, InterruptedException {
+            Integer published = client.getPublishedPort(env, step.containerId, step.port);
+            if (published != null) {
+                return InetSocketAddress.createUnresolved(dockerHost(env.get("DOCKER_HOST")), published);
+            }
+            List<String> addresses = client.getIPAddresses(env, step.containerId);
+            if (addresses.isEmpty()) {
+                throw new AbortException("Container " + step.containerId + " neither publishes port " + step.port + " nor has an IP address to probe it on");
+            }
+            return InetSocketAddress.createUnresolved(addresses.get(0), step.port);
+        }
+
+        private static @NonNull String dockerHost(@CheckForNull String uri) {
+            if (uri != null && uri.startsWith("tcp://")) {
+                String host = URI.create(uri).getHost();
+                if (host != null) {
+                    return host;
+                }
+            }
+            return "localhost";
+        }
+
+    }
+
+    private static final class Probe extends MasterToSlaveCallable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String host;
+        private final int port;
+
+        Probe(InetSocketAddress address) {
+            this.host = address.getHostString();
+            this.port = address.getPort();
+        }
+
+        @Override public Boolean call() {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 1000);
+                return true;
+            } catch (IOException x) {
+                return false;
+            }
+        }
+
+    }
+
+    @Extension public static class DescriptorImpl extends StepDescriptor {
+
+        @Override public String getFunctionName() {
+            return "waitForDockerContainer";
+        }
+
+        @NonNull
+        @Override public String getDisplayName() {
+            return "Wait for a Docker container to be ready";
+        }
+
+        @Override public boolean isAdvanced() {
+            return true;
+        }
+
+        @Override public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Launcher.class, Node.class, EnvVars.class, TaskListener.class, FilePath.class);
+        }
+
+    }
+
+}
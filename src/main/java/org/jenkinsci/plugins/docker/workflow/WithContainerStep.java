@@ -27,6 +27,7 @@ import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -40,45 +41,112 @@ import hudson.model.Node;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.os.WindowsUtil;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.WorkspaceList;
+import hudson.util.ListBoxModel;
 import hudson.util.VersionNumber;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.Timer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.UUID;
 import org.jenkinsci.plugins.docker.commons.tools.DockerTool;
 import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+import org.jenkinsci.plugins.docker.workflow.client.DockerCommandStatistics;
 import org.jenkinsci.plugins.docker.workflow.client.WindowsDockerClient;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class WithContainerStep extends AbstractStepImpl {
     
     private static final Logger LOGGER = Logger.getLogger(WithContainerStep.class.getName());
+
+    /**
+     * Whether to remove the container in the background once the block exits, rather than waiting for it.
+     * Containers with a fixed name or published ports are always removed before the block exits, so that a following block can reuse them.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static boolean ASYNC_STOP = Boolean.parseBoolean(System.getProperty(WithContainerStep.class.getName() + ".ASYNC_STOP", "true"));
+
+    /**
+     * Whether to skip checking with {@code docker top} that the container runs the expected command
+     * once that check has passed for the same image, node, Docker host and arguments.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static boolean CACHE_COMMAND_CHECK = Boolean.parseBoolean(System.getProperty(WithContainerStep.class.getName() + ".CACHE_COMMAND_CHECK", "true"));
+
+    private static final int MAX_CHECKED_IMAGES = 1000;
+
+    /**
+     * Keys of images known to run the expected command, least recently used first.
+     * Only successful checks are remembered, so a broken image keeps being reported.
+     */
+    private static final Map<String, Boolean> checkedImages = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_CHECKED_IMAGES;
+        }
+    });
+
+    /**
+     * How long to trust whether a Docker daemon has SELinux enabled before asking it again, in milliseconds.
+     * The same {@code DOCKER_HOST} may come to point to another daemon, or the daemon may be reconfigured.
+     */
+    @SuppressFBWarnings(value="MS_SHOULD_BE_FINAL", justification="mutable for scripts")
+    @Restricted(NoExternalUse.class)
+    public static long SELINUX_CHECK_TTL = Long.getLong(WithContainerStep.class.getName() + ".SELINUX_CHECK_TTL", TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * Whether SELinux is enabled on each Docker daemon seen, keyed by node name, {@code DOCKER_HOST} and tool,
+     * along with when that was checked.
+     */
+    private static final Map<String, SELinuxCheck> selinuxDaemons = new ConcurrentHashMap<>();
+
     private final @NonNull String image;
     private String args;
+    private String caches;
+    private boolean tmpfs;
+    private String overlay;
+    private boolean execAgent;
+    private boolean lazyPull;
     private String toolName;
 
     @DataBoundConstructor public WithContainerStep(@NonNull String image) {
@@ -99,6 +167,67 @@ public class WithContainerStep extends AbstractStepImpl {
         return args;
     }
 
+    public String getCaches() {
+        return caches;
+    }
+
+    /**
+     * @param caches dependency caches to keep between builds, as {@code name:/path/in/container} entries separated by spaces
+     * @see DockerCaches
+     */
+    @DataBoundSetter public void setCaches(String caches) {
+        this.caches = Util.fixEmptyAndTrim(caches);
+    }
+
+    public boolean isTmpfs() {
+        return tmpfs;
+    }
+
+    /**
+     * @param tmpfs whether to mount {@code /tmp} in the container on tmpfs;
+     *              this does not cover the durable task control directory ({@code workspace@tmp}), which stays bind-mounted from the agent disk
+     *              since durable tasks always place it next to the workspace and the agent reads their logs there
+     */
+    @DataBoundSetter public void setTmpfs(boolean tmpfs) {
+        this.tmpfs = tmpfs;
+    }
+
+    public String getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * @param overlay {@code discard} or {@code merge} to mount the workspace as the lower layer of an overlay
+     * @see WorkspaceOverlay
+     */
+    @DataBoundSetter public void setOverlay(String overlay) {
+        this.overlay = Util.fixEmptyAndTrim(overlay);
+    }
+
+    public boolean isExecAgent() {
+        return execAgent;
+    }
+
+    /**
+     * @param execAgent whether to run processes through {@link ContainerExecAgent} rather than {@code docker exec}
+     */
+    @DataBoundSetter public void setExecAgent(boolean execAgent) {
+        this.execAgent = execAgent;
+    }
+
+    public boolean isLazyPull() {
+        return lazyPull;
+    }
+
+    /**
+     * @param lazyPull whether to report if the daemon can start the container before the image is fully pulled,
+     *                 and record how long the first process in the container took to start
+     * @see LazyPull
+     */
+    @DataBoundSetter public void setLazyPull(boolean lazyPull) {
+        this.lazyPull = lazyPull;
+    }
+
     public String getToolName() {
         return toolName;
     }
@@ -107,8 +236,35 @@ public class WithContainerStep extends AbstractStepImpl {
         this.toolName = Util.fixEmpty(toolName);
     }
 
-    private static void destroy(String container, @NonNull Launcher launcher, Node node, EnvVars launcherEnv, String toolName) throws Exception {
-        new DockerClient(launcher, node, toolName).stop(launcherEnv, container);
+    /**
+     * @param graceful whether to give processes still running in the container a moment to exit
+     */
+    private static final Pattern NAME_OR_PORT_ARG = Pattern.compile("(^|\\s)(--name(?=[\\s=]|$)|--publish(?=[\\s=]|$)|-p)");
+
+    /**
+     * Whether {@code docker run} arguments give the container a fixed name or publish ports,
+     * which another container cannot take as long as this one exists.
+     */
+    static boolean claimsNameOrPort(@CheckForNull String args) {
+        return args != null && NAME_OR_PORT_ARG.matcher(args).find();
+    }
+
+    private static void destroy(String container, @NonNull Launcher launcher, Node node, EnvVars launcherEnv, String toolName, boolean graceful) throws Exception {
+        ContainerEvent event = new ContainerEvent();
+        event.begin();
+        DockerClient client = new DockerClient(launcher, node, toolName);
+        if (graceful) {
+            client.stop(launcherEnv, container);
+        } else {
+            // Only cat is left running once the block has exited, and it ignores SIGTERM anyway.
+            client.forceStop(launcherEnv, container);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "stop";
+            event.container = container;
+            event.commit();
+        }
     }
 
     // TODO switch to GeneralNonBlockingStepExecution
@@ -125,11 +281,45 @@ public class WithContainerStep extends AbstractStepImpl {
         @StepContextParameter private transient Run run;
         private String container;
         private String toolName;
+        /** The block, so that it can be cancelled if the container is found dead on resume; null when loaded from an older build. */
+        private @CheckForNull BodyExecution body;
+        /** Cache volumes mounted in the container, if any. */
+        private @CheckForNull DockerCaches.Lease cacheLease;
+        /** The overlay mounted at the workspace, if any. */
+        private @CheckForNull WorkspaceOverlay overlay;
 
         public Execution() {
         }
 
         @Override public boolean start() throws Exception {
+            try {
+                return doStart();
+            } catch (Exception x) {
+                if (cacheLease != null) {
+                    cacheLease.release();
+                }
+                if (overlay != null) {
+                    // No Callback will close it, and merges of the other overlays of the workspace would wait for it forever.
+                    try {
+                        DockerClient dockerClient = new DockerClient(launcher, node, toolName);
+                        if (container != null) {
+                            // The volume cannot be removed while a container uses it.
+                            dockerClient.rm(env, container);
+                            container = null;
+                        }
+                        overlay.close(dockerClient, env, workspace, listener, true);
+                    } catch (IOException | InterruptedException x2) {
+                        x.addSuppressed(x2);
+                    }
+                }
+                throw x;
+            }
+        }
+
+        private boolean doStart() throws Exception {
+            ContainerEvent event = new ContainerEvent();
+            event.begin();
+            long probeStart = System.currentTimeMillis();
             EnvVars envReduced = new EnvVars(env);
             EnvVars envHost = computer.getEnvironment();
             envReduced.entrySet().removeAll(envHost.entrySet());
@@ -145,6 +335,7 @@ public class WithContainerStep extends AbstractStepImpl {
             DockerClient dockerClient = launcher.isUnix()
                 ? new DockerClient(launcher, node, toolName)
                 : new WindowsDockerClient(launcher, node, toolName);
+            dockerClient.setBuildRecorder(DockerCommandsAction.of(run));
 
             VersionNumber dockerVersion = dockerClient.version();
             if (dockerVersion != null) {
@@ -196,10 +387,129 @@ public class WithContainerStep extends AbstractStepImpl {
                 volumes.put(tmp, tmp);
             }
 
+            String user = dockerClient.whoAmI();
+            Map<String, String> caches;
+            try {
+                caches = DockerCaches.parse(step.caches);
+            } catch (IllegalArgumentException x) {
+                throw new AbortException(x.getMessage());
+            }
+            if (!caches.isEmpty()) {
+                DockerCaches.Lease lease = new DockerCaches.Lease(node.getNodeName() + '\n' + env.get("DOCKER_HOST"));
+                cacheLease = lease;
+                boolean created = false;
+                for (Map.Entry<String, String> cache : caches.entrySet()) {
+                    String volume = lease.add(cache.getKey(), env.get("NODE_NAME"), env.get("EXECUTOR_NUMBER"));
+                    if (dockerClient.createVolume(env, volume, Collections.singletonMap(DockerCaches.LABEL_CACHE, cache.getKey()))) {
+                        created = true;
+                        if (launcher.isUnix() && !user.isEmpty()) {
+                            try {
+                                dockerClient.chownVolume(env, volume, step.image, user);
+                            } catch (IOException x) {
+                                listener.error(x.getMessage() + "; the cache may not be writable");
+                            }
+                        }
+                    }
+                    volumes.put(volume, cache.getValue());
+                }
+                if (created) {
+                    DockerCaches.evict(dockerClient, env, lease.daemon(), listener);
+                }
+            }
+
+            String args = DockerNetworks.args(step.args, env.get(DockerNetworks.ENV_VAR), null);
+            if (step.tmpfs) {
+                if (launcher.isUnix()) {
+                    args = "--tmpfs /tmp:rw,exec,mode=1777" + (args != null ? " " + args : "");
+                } else {
+                    listener.getLogger().println("tmpfs is not available for Windows containers; ignoring");
+                }
+            }
+
+            if (step.overlay != null) {
+                WorkspaceOverlay.Mode mode;
+                try {
+                    mode = WorkspaceOverlay.Mode.valueOf(step.overlay.toUpperCase(Locale.ENGLISH));
+                } catch (IllegalArgumentException x) {
+                    throw new AbortException("overlay must be 'discard' or 'merge', not '" + step.overlay + "'");
+                }
+                if (!launcher.isUnix() || !ws.equals(volumes.get(ws))) {
+                    throw new AbortException("overlay requires a Unix agent whose workspace is on the Docker host");
+                }
+                overlay = WorkspaceOverlay.create(mode, dockerClient, env, workspace, step.image, OrphanedContainerCollector.labels(run), run.getStartTimeInMillis(), listener);
+                volumes.remove(ws);
+                volumes.put(overlay.getVolume(), ws);
+            }
+
+            DockerNodeProperty.Relabel relabel = DockerNodeProperty.relabel(node);
+            FilePath relabelMarker = tempDir.child(".docker-relabeled");
+            // A workspace deleted and created again has lost its label, so the marker holds which directory was relabeled.
+            String workspaceId = relabel == DockerNodeProperty.Relabel.ONCE && launcher.isUnix() ? workspace.act(new DirectoryId()) : null;
+            if (launcher.isUnix()) {
+                dockerClient.setVolumeLabel(volumeLabel(relabel, relabelMarker, workspaceId, dockerClient));
+            }
+
             String command = launcher.isUnix() ? "cat" : "cmd.exe";
-            container = dockerClient.run(env, step.image, step.args, ws, volumes, volumesFromContainers, envReduced, dockerClient.whoAmI(), /* expected to hang until killed */ command);
-            final List<String> ps = dockerClient.listProcess(env, container);
-            if (!ps.contains(command)) {
+            String[] commandLine = {command};
+            String execAgent = null;
+            if (step.execAgent) {
+                String dockerHost = env.get("DOCKER_HOST");
+                FilePath agentDir = tempDir.child("docker-exec-" + UUID.randomUUID().toString().substring(0, 8));
+                if (!launcher.isUnix() || dockerHost != null && !dockerHost.startsWith("unix://")) {
+                    listener.getLogger().println("execAgent requires a Unix agent running its own Docker daemon; using docker exec");
+                } else if (agentDir.mkdirs() && launcher.launch().cmds("mkfifo", agentDir.child("requests").getRemote()).stdout(listener).quiet(true).join() == 0) {
+                    execAgent = agentDir.getRemote();
+                    command = "sh";
+                    commandLine = ContainerExecAgent.serverCommand(execAgent);
+                } else {
+                    listener.getLogger().println("Could not create a named pipe in " + agentDir.getRemote() + "; using docker exec");
+                }
+            }
+            if (step.lazyPull) {
+                if (!launcher.isUnix()) {
+                    listener.getLogger().println("lazyPull is not available for Windows containers; ignoring");
+                } else {
+                    String driver = dockerClient.getStorageDriver(env);
+                    LazyPull.record(env.get("NODE_NAME"), env.get("DOCKER_HOST"), driver);
+                    // Image.inside may have skipped its pull, and even a lazy snapshotter pulls images in the usual format in full.
+                    // Still bounded, since start() runs on the CPS VM thread.
+                    dockerClient.setRunTimeout(LazyPull.RUN_TIMEOUT);
+                    if (LazyPull.isLazy(driver)) {
+                        listener.getLogger().println("Docker uses the " + driver + " snapshotter, so " + step.image + " is fetched as the container reads it");
+                    } else {
+                        listener.getLogger().println("Docker uses the " + (driver != null ? driver : "unknown") + " storage driver, which does not pull lazily");
+                    }
+                }
+            }
+            long runStart = System.currentTimeMillis();
+            DockerTimelineAction.record(run, "probe", step.image, probeStart, runStart);
+            container = dockerClient.run(env, step.image, args, ws, volumes, volumesFromContainers, envReduced, OrphanedContainerCollector.labels(run), user, /* expected to hang until killed */ commandLine);
+            // The pipe may not work from inside the container, as with Docker Desktop sharing files into a VM, in which case the server exits or never answers.
+            if (execAgent != null && launcher.launch().cmds(ContainerExecAgent.probeCommand(execAgent)).stdout(listener).quiet(true).join() != 0) {
+                listener.getLogger().println("The container does not answer through " + execAgent + "; using docker exec");
+                dockerClient.forceStop(env, container);
+                container = null;
+                new FilePath(workspace.getChannel(), execAgent).deleteRecursive();
+                execAgent = null;
+                command = "cat";
+                container = dockerClient.run(env, step.image, args, ws, volumes, volumesFromContainers, envReduced, OrphanedContainerCollector.labels(run), user, command);
+            }
+            ImageLocality.record(node, step.image);
+            if (workspaceId != null) {
+                // Only now that docker run has relabeled the workspace.
+                relabelMarker.write(workspaceId, "UTF-8");
+            }
+            long psStart = System.currentTimeMillis();
+            DockerTimelineAction.record(run, "run", step.image, runStart, psStart);
+            // Checking the image as named rather than its ID: resolving the ID would cost as much as the check itself.
+            String checkKey = node.getNodeName() + '\n' + env.get("DOCKER_HOST") + '\n' + step.image + '\n' + step.args;
+            if (CACHE_COMMAND_CHECK && checkedImages.containsKey(checkKey)) {
+                LOGGER.log(Level.FINE, "{0} is known to run {1}", new Object[] {step.image, command});
+            } else if (dockerClient.listProcess(env, container).contains(command)) {
+                DockerTimelineAction.record(run, "ps-check", container, psStart, System.currentTimeMillis());
+                checkedImages.put(checkKey, true);
+            } else {
+                DockerTimelineAction.record(run, "ps-check", container, psStart, System.currentTimeMillis());
                 listener.error(
                     "The container started but didn't run the expected command. " +
                         "Please double check your ENTRYPOINT does execute the command passed as docker run argument, " +
@@ -208,13 +518,64 @@ public class WithContainerStep extends AbstractStepImpl {
             }
 
             ImageAction.add(step.image, run);
-            getContext().newBodyInvoker().
-                    withContext(BodyInvoker.mergeLauncherDecorators(getContext().get(LauncherDecorator.class), new Decorator(container, envHost, ws, toolName, dockerVersion))).
-                    withCallback(new Callback(container, toolName)).
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = "start";
+                event.image = step.image;
+                event.container = container;
+                event.build = run.getExternalizableId();
+                event.commit();
+            }
+            // Resolved once here rather than for each process, and kept across restarts along with the rest of the Decorator.
+            String executable = DockerTool.getExecutable(toolName, node, listener, envHost);
+            body = getContext().newBodyInvoker().
+                    withContext(BodyInvoker.mergeLauncherDecorators(getContext().get(LauncherDecorator.class), new Decorator(container, envHost, ws, toolName, dockerVersion, run.getExternalizableId(), execAgent, executable, step.lazyPull ? probeStart : 0))).
+                    withCallback(new Callback(container, toolName, System.currentTimeMillis(), overlay, execAgent, cacheLease, claimsNameOrPort(step.args))).
                     start();
             return false;
         }
 
+        /**
+         * Checks once that the container survived the restart, so that a dead one fails the block right away
+         * rather than once each step inside it notices.
+         */
+        @Override public void onResume() {
+            super.onResume();
+            if (cacheLease != null) {
+                cacheLease.resume();
+            }
+            if (container == null) {
+                return;
+            }
+            Timer.get().submit(() -> {
+                try {
+                    StepContext context = getContext();
+                    // Waits for the agent to come back.
+                    Launcher launcher = context.get(Launcher.class);
+                    boolean running;
+                    try {
+                        running = new DockerClient(launcher, context.get(Node.class), toolName).isRunning(context.get(EnvVars.class), container);
+                    } catch (IOException x) {
+                        // The daemon may be slow to come back too; steps inside fail on their own if the container is really gone.
+                        context.get(TaskListener.class).getLogger().println("Could not check whether container " + container + " is still running: " + x.getMessage());
+                        return;
+                    }
+                    if (running) {
+                        context.get(TaskListener.class).getLogger().println("Container " + container + " is still running");
+                        return;
+                    }
+                    AbortException x = new AbortException("Container " + container + " is no longer running");
+                    if (body != null) {
+                        body.cancel(x);
+                    } else {
+                        context.onFailure(x);
+                    }
+                } catch (Exception x) {
+                    LOGGER.log(Level.WARNING, "could not check whether container " + container + " is still running", x);
+                }
+            });
+        }
+
         private String getPath(FilePath filePath)
             throws IOException, InterruptedException {
             if (launcher.isUnix()) {
@@ -224,6 +585,27 @@ public class WithContainerStep extends AbstractStepImpl {
             }
         }
 
+        private @CheckForNull String volumeLabel(DockerNodeProperty.Relabel relabel, FilePath relabelMarker, @CheckForNull String workspaceId, DockerClient dockerClient) throws IOException, InterruptedException {
+            switch (relabel) {
+            case NONE:
+                return null;
+            case SHARED:
+                return "z";
+            case PRIVATE:
+                return "Z";
+            case ONCE:
+                return workspaceId != null && relabelMarker.exists() && relabelMarker.readToString().equals(workspaceId) ? null : "z";
+            default:
+                String key = node.getNodeName() + '\n' + env.get("DOCKER_HOST") + '\n' + toolName;
+                SELinuxCheck check = selinuxDaemons.get(key);
+                if (check == null || System.currentTimeMillis() - check.time > SELINUX_CHECK_TTL) {
+                    check = new SELinuxCheck(dockerClient.isSELinuxEnabled(env));
+                    selinuxDaemons.put(key, check);
+                }
+                return check.enabled ? "z" : null;
+            }
+        }
+
         // TODO use 1.652 use WorkspaceList.tempDir
         private static FilePath tempDir(FilePath ws) {
             return ws.sibling(ws.getName() + System.getProperty(WorkspaceList.class.getName(), "@") + "tmp");
@@ -232,13 +614,20 @@ public class WithContainerStep extends AbstractStepImpl {
         @Override public void stop(@NonNull Throwable cause) throws Exception {
             if (container != null) {
                 LOGGER.log(Level.FINE, "stopping container " + container, cause);
-                destroy(container, launcher, getContext().get(Node.class), env, toolName);
+                long start = System.currentTimeMillis();
+                Node node = getContext().get(Node.class);
+                destroy(container, launcher, node, env, toolName, true);
+                DockerTimelineAction.record(run, "stop", container, start, System.currentTimeMillis());
+                if (overlay != null) {
+                    // Changes of an aborted block are incomplete, so they are dropped rather than merged.
+                    overlay.close(new DockerClient(launcher, node, toolName), env, getContext().get(FilePath.class), getContext().get(TaskListener.class), true);
+                }
             }
         }
 
     }
 
-    private static class Decorator extends LauncherDecorator implements Serializable {
+    static class Decorator extends LauncherDecorator implements Serializable {
 
         private static final long serialVersionUID = 1;
         private final String container;
@@ -247,8 +636,26 @@ public class WithContainerStep extends AbstractStepImpl {
         private final @CheckForNull String toolName;
         private final boolean hasEnv;
         private final boolean hasWorkdir;
+        /** {@link Run#getExternalizableId}; null when loading an old serialized Decorator */
+        private final @CheckForNull String run;
+        /** Directory of the {@link ContainerExecAgent}, if the container runs one. */
+        private final @CheckForNull String execAgent;
+        /** The {@code docker} executable; null when loading an old serialized Decorator, in which case it is looked up for each process. */
+        private final @CheckForNull String executable;
+        /** When the step started, to record the time until the first process in the timeline; 0 if not wanted. */
+        private final long firstStepSince;
+        private transient volatile boolean firstStepRecorded;
+        private transient volatile DockerCommandsAction action;
 
-        Decorator(String container, EnvVars envHost, String ws, @CheckForNull String toolName, VersionNumber dockerVersion) {
+        Decorator(String container, EnvVars envHost, String ws, @CheckForNull String toolName, VersionNumber dockerVersion, @CheckForNull String run) {
+            this(container, envHost, ws, toolName, dockerVersion, run, null, null, 0);
+        }
+
+        Decorator(String container, EnvVars envHost, String ws, @CheckForNull String toolName, VersionNumber dockerVersion, @CheckForNull String run, @CheckForNull String execAgent, @CheckForNull String executable, long firstStepSince) {
+            this.run = run;
+            this.execAgent = execAgent;
+            this.executable = executable;
+            this.firstStepSince = firstStepSince;
             this.container = container;
             this.envHost = Util.mapToEnv(envHost);
             this.ws = ws;
@@ -257,10 +664,58 @@ public class WithContainerStep extends AbstractStepImpl {
             this.hasWorkdir = dockerVersion != null && dockerVersion.compareTo(new VersionNumber("17.12")) >= 0;
         }
 
+        /**
+         * Counts a launched process.
+         * Durable steps such as {@code sh} never wait for the process they launch, so they are only counted here and not timed.
+         */
+        void startedExec() {
+            DockerCommandStatistics.GLOBAL.started("exec");
+            DockerCommandsAction a = action();
+            if (a != null) {
+                a.started("exec");
+            }
+        }
+
+        /**
+         * Times a process which has been waited for.
+         */
+        void recordExec(long durationNanos, int status) {
+            DockerCommandStatistics.GLOBAL.record("exec", durationNanos, status, 0);
+            DockerCommandsAction a = action();
+            if (a != null) {
+                a.record("exec", durationNanos, status, 0);
+            }
+        }
+
+        private @CheckForNull DockerCommandsAction action() {
+            if (action == null) {
+                action = DockerCommandsAction.of(run);
+            }
+            return action;
+        }
+
+        void recordFirstStep() {
+            if (firstStepSince == 0 || firstStepRecorded || run == null) {
+                return;
+            }
+            firstStepRecorded = true;
+            Run<?, ?> build = Run.fromExternalizableId(run);
+            if (build != null && !DockerTimelineAction.contains(build, "first-step", container)) {
+                DockerTimelineAction.record(build, "first-step", container, firstStepSince, System.currentTimeMillis());
+            }
+        }
+
         @NonNull
         @Override public Launcher decorate(@NonNull final Launcher launcher, @NonNull final Node node) {
             return new Launcher.DecoratedLauncher(launcher) {
                 @Override public Proc launch(Launcher.ProcStarter starter) throws IOException {
+                    ExecEvent event = new ExecEvent();
+                    event.begin();
+                    long start = System.nanoTime();
+                    String program = starter.cmds().isEmpty() ? null : starter.cmds().get(0);
+                    if (execAgent != null && ws != null && super.isUnix()) {
+                        return launchThroughAgent(starter, event, start, program);
+                    }
                     String executable;
                     try {
                         executable = getExecutable();
@@ -361,7 +816,42 @@ public class WithContainerStep extends AbstractStepImpl {
                     System.arraycopy(originalMasks, 0, masks, prefix.size(), originalMasks.length);
                     starter.masks(masks);
 
-                    return super.launch(starter);
+                    Proc proc = super.launch(starter);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.container = container;
+                        event.executable = program;
+                        event.environmentSize = envReduced.size();
+                        event.commit();
+                    }
+                    recordFirstStep();
+                    startedExec();
+                    return new TimedProc(proc, start, Decorator.this);
+                }
+                private Proc launchThroughAgent(Launcher.ProcStarter starter, ExecEvent event, long start, String program) throws IOException {
+                    Map<String, String> envReduced = new TreeMap<>();
+                    Set<String> hostEnv = new HashSet<>(Arrays.asList(envHost));
+                    for (String e : starter.envs()) {
+                        int eq = e.indexOf('=');
+                        if (eq > 0 && !hostEnv.contains(e) && !e.startsWith("PATH=")) {
+                            envReduced.put(e.substring(0, eq), e.substring(eq + 1));
+                        }
+                    }
+                    FilePath cwd = starter.pwd();
+                    starter.cmds(ContainerExecAgent.clientCommand(execAgent, cwd != null ? cwd.getRemote() : ws, envReduced, starter.cmds()));
+                    // The last argument holds the environment and the original command, masked or not.
+                    starter.masks(false, false, false, false, false, true);
+                    Proc proc = super.launch(starter);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.container = container;
+                        event.executable = program;
+                        event.environmentSize = envReduced.size();
+                        event.commit();
+                    }
+                    recordFirstStep();
+                    startedExec();
+                    return new TimedProc(proc, start, Decorator.this);
                 }
                 @Override public void kill(Map<String,String> modelEnvVars) throws IOException, InterruptedException {
                     ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -403,6 +893,9 @@ public class WithContainerStep extends AbstractStepImpl {
                     }
                 }
                 private String getExecutable() throws IOException, InterruptedException {
+                    if (executable != null) {
+                        return executable;
+                    }
                     EnvVars env = new EnvVars();
                     for (String pair : envHost) {
                         env.addLine(pair);
@@ -414,24 +907,149 @@ public class WithContainerStep extends AbstractStepImpl {
 
     }
 
+    private static final class SELinuxCheck {
+
+        final boolean enabled;
+        final long time = System.currentTimeMillis();
+
+        SELinuxCheck(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+    }
+
+    /**
+     * Identifies a directory by its device and inode, which change when it is deleted and created again.
+     */
+    private static final class DirectoryId extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1;
+
+        @Override public String invoke(File f, VirtualChannel channel) throws IOException {
+            try {
+                return Files.getAttribute(f.toPath(), "unix:dev") + ":" + Files.getAttribute(f.toPath(), "unix:ino");
+            } catch (UnsupportedOperationException | IllegalArgumentException x) {
+                // No inodes to go by, so any marker counts.
+                return "";
+            }
+        }
+
+    }
+
+    /**
+     * Reports how long a {@code docker exec} took once it is joined.
+     */
+    private static final class TimedProc extends Proc {
+
+        private final Proc delegate;
+        private final long start;
+        private final Decorator decorator;
+
+        TimedProc(Proc delegate, long start, Decorator decorator) {
+            this.delegate = delegate;
+            this.start = start;
+            this.decorator = decorator;
+        }
+
+        @Override public boolean isAlive() throws IOException, InterruptedException {
+            return delegate.isAlive();
+        }
+
+        @Override public void kill() throws IOException, InterruptedException {
+            delegate.kill();
+        }
+
+        @Override public int join() throws IOException, InterruptedException {
+            int status = delegate.join();
+            decorator.recordExec(System.nanoTime() - start, status);
+            return status;
+        }
+
+        @Override public InputStream getStdout() {
+            return delegate.getStdout();
+        }
+
+        @Override public InputStream getStderr() {
+            return delegate.getStderr();
+        }
+
+        @Override public OutputStream getStdin() {
+            return delegate.getStdin();
+        }
+
+    }
+
     private static class Callback extends BodyExecutionCallback.TailCall {
 
         private static final long serialVersionUID = 1;
         private final String container;
         private final String toolName;
+        private final long bodyStart;
+        private final @CheckForNull WorkspaceOverlay overlay;
+        private final @CheckForNull String execAgent;
+        private final @CheckForNull DockerCaches.Lease cacheLease;
+        /** Whether the container holds a name or host port which a following block may want, so must be gone by the time this one exits. */
+        private final boolean exclusive;
 
-        Callback(String container, String toolName) {
+        Callback(String container, String toolName, long bodyStart, @CheckForNull WorkspaceOverlay overlay, @CheckForNull String execAgent, @CheckForNull DockerCaches.Lease cacheLease, boolean exclusive) {
             this.container = container;
             this.toolName = toolName;
+            this.bodyStart = bodyStart;
+            this.overlay = overlay;
+            this.execAgent = execAgent;
+            this.cacheLease = cacheLease;
+            this.exclusive = exclusive;
         }
 
         @Override protected void finished(StepContext context) throws Exception {
-            Launcher launcher = context.get(Launcher.class);
-            if (launcher != null) {
-                destroy(container, launcher, context.get(Node.class), context.get(EnvVars.class), toolName);
+            Run<?, ?> run = context.get(Run.class);
+            long start = System.currentTimeMillis();
+            if (bodyStart != 0) { // otherwise loaded from an older build
+                DockerTimelineAction.record(run, "body", container, bodyStart, start);
+            }
+            try {
+                Launcher launcher = context.get(Launcher.class);
+                if (launcher != null) {
+                    Node node = context.get(Node.class);
+                    EnvVars env = context.get(EnvVars.class);
+                    if (overlay != null) {
+                        // The upper layer can only be merged and removed once the container is gone.
+                        try {
+                            destroy(container, launcher, node, env, toolName, false);
+                        } catch (IOException x) {
+                            LOGGER.log(Level.FINE, "container " + container + " may already have been stopped", x);
+                        }
+                        overlay.close(new DockerClient(launcher, node, toolName), env, context.get(FilePath.class), context.get(TaskListener.class), false);
+                    } else if (ASYNC_STOP && !exclusive && node != null && env != null && canRemoveLater(env)) {
+                        ContainerReaper.get().add(node, toolName, env, container);
+                    } else {
+                        destroy(container, launcher, node, env, toolName, false);
+                    }
+                    // When queued, this only covers handing the container over to ContainerReaper.
+                    DockerTimelineAction.record(run, "rm", container, start, System.currentTimeMillis());
+                    if (execAgent != null) {
+                        FilePath ws = context.get(FilePath.class);
+                        if (ws != null) {
+                            new FilePath(ws.getChannel(), execAgent).deleteRecursive();
+                        }
+                    }
+                }
+            } finally {
+                if (cacheLease != null) {
+                    cacheLease.release();
+                }
             }
         }
 
+        /**
+         * Whether the container may still exist once the enclosing blocks have exited.
+         * Certificates from {@code withDockerServer} are deleted when its block exits, as is the socket of its proxy,
+         * and {@code docker.withNetwork} cannot remove its network while containers are attached to it.
+         */
+        private static boolean canRemoveLater(EnvVars env) {
+            return !env.containsKey("DOCKER_CERT_PATH") && !env.containsKey(DockerServerProxy.ENV_VAR) && !env.containsKey(DockerNetworks.ENV_VAR);
+        }
+
     }
 
     @Extension public static class DescriptorImpl extends AbstractStepDescriptorImpl {
@@ -457,6 +1075,14 @@ public class WithContainerStep extends AbstractStepImpl {
             return true;
         }
 
+        public ListBoxModel doFillOverlayItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("None", "");
+            items.add("Discard changes", "discard");
+            items.add("Merge changes back", "merge");
+            return items;
+        }
+
     }
 
 }
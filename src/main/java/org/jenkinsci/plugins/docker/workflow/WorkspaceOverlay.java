@@ -0,0 +1,407 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.docker.workflow;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.docker.workflow.client.DockerClient;
+
+/**
+ * Mounts a workspace into a container as the read-only lower layer of an overlay,
+ * so that several containers can work on the same checkout without seeing each other's changes.
+ * The writable upper layer lives next to the workspace and is either discarded or merged back once the container is gone.
+ * Since the lower layer must not change while mounted, merges wait until no other overlay of the workspace is open;
+ * the last overlay to close then merges all pending ones in the order they closed.
+ */
+final class WorkspaceOverlay implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** Prefix of the name of the volume of each overlay, followed by the name of its directory. */
+    private static final String VOLUME_PREFIX = "jenkins-overlay-";
+
+    /** Marks an upper layer waiting to be merged. */
+    private static final String PENDING = "merge-pending";
+
+    /** Marks a directory which the container deleted and created again, in upper layers not written by the kernel overlay driver. */
+    private static final String OPAQUE_MARKER = ".wh..wh..opq";
+
+    /** Extended attribute, in the {@code user} namespace, marking a directory as opaque with the {@code userxattr} mount option. */
+    private static final String OPAQUE_XATTR = "overlay.opaque";
+
+    private static final Pattern KERNEL_VERSION = Pattern.compile("(\\d+)\\.(\\d+)");
+
+    enum Mode {
+        /** Drop whatever the container changed. */
+        DISCARD,
+        /** Copy files the container created or changed into the workspace, and delete those it deleted. */
+        MERGE
+    }
+
+    private final Mode mode;
+    private final String volume;
+    private final String dir;
+    private final String image;
+    /** When the build started; overlays of the workspace older than that are left over from an earlier build. */
+    private final long since;
+
+    private WorkspaceOverlay(Mode mode, String volume, String dir, String image, long since) {
+        this.mode = mode;
+        this.volume = volume;
+        this.dir = dir;
+        this.image = image;
+        this.since = since;
+    }
+
+    /**
+     * Creates the upper layer and a volume combining it with the workspace.
+     * @param ws the workspace, also the mount point in the container
+     * @param image the image of the container, also used to clean up files only root may delete
+     * @param since when the build started
+     * @return the overlay, whose {@link #getVolume} should be mounted at {@code ws}
+     */
+    static @NonNull WorkspaceOverlay create(@NonNull Mode mode, @NonNull DockerClient client, @NonNull EnvVars env, @NonNull FilePath ws, @NonNull String image, @NonNull Map<String, String> labels, long since, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        String id = UUID.randomUUID().toString().substring(0, 8);
+        FilePath dir = ws.sibling(ws.getName() + "@overlay").child(id);
+        FilePath upper = dir.child("upper");
+        FilePath work = dir.child("work");
+        // Opaque directories are otherwise marked with trusted extended attributes, which only root can read.
+        boolean userxattr = false;
+        if (mode == Mode.MERGE) {
+            userxattr = ws.act(new SupportsUserXattr());
+            if (!userxattr) {
+                listener.getLogger().println("The kernel of this agent is older than 5.11, so directories deleted and created again in the container may keep old files when merged");
+            }
+        }
+        String volume = VOLUME_PREFIX + id;
+        WorkspaceOverlay overlay = new WorkspaceOverlay(mode, volume, dir.getRemote(), image, since);
+        // Docker only mounts the volume when a container uses it, so it can come first:
+        // other overlays closing meanwhile then never see this directory without its volume and take it for stale.
+        client.createOverlayVolume(env, volume, ws.getRemote(), upper.getRemote(), work.getRemote(), userxattr, labels);
+        try {
+            upper.mkdirs();
+            work.mkdirs();
+        } catch (IOException | InterruptedException x) {
+            client.rmVolume(env, volume);
+            throw x;
+        }
+        return overlay;
+    }
+
+    @NonNull
+    String getVolume() {
+        return volume;
+    }
+
+    /**
+     * Merges or discards changes, then removes the volume and the upper layer.
+     * Must be called once the container has been removed; does nothing if the overlay was already closed.
+     * @param discard whether to drop the changes even in merge mode, as when the build was aborted
+     */
+    void close(@NonNull DockerClient client, @NonNull EnvVars env, @NonNull FilePath ws, @NonNull TaskListener listener, boolean discard) throws IOException, InterruptedException {
+        FilePath base = new FilePath(ws.getChannel(), dir);
+        FilePath overlays = base.getParent();
+        if (overlays == null) {
+            return;
+        }
+        boolean merge = mode == Mode.MERGE && !discard;
+        Outcome outcome = overlays.act(new Close(base.getName(), merge, ws.getRemote(), stale(client, env, overlays, base.getName())));
+        if (outcome == null) {
+            return;
+        }
+        if (outcome.stale > 0) {
+            listener.getLogger().println("Discarded " + outcome.stale + " overlays of " + ws.getRemote() + " left open by containers which never ran or are gone");
+        }
+        if (merge && outcome.waiting > 0) {
+            listener.getLogger().println("Merging changes into " + ws.getRemote() + " once the " + outcome.waiting + " other overlays of it have been closed");
+        }
+        if (outcome.merged > 0) {
+            listener.getLogger().println("Merged " + outcome.changes + " changed files from " + outcome.merged + " overlays into " + ws.getRemote());
+        }
+        client.rmVolume(env, volume);
+        for (String trash : outcome.trash) {
+            FilePath d = overlays.child(trash);
+            try {
+                d.deleteRecursive();
+            } catch (IOException x) {
+                // The kernel leaves a directory only root may delete in the work directory.
+                client.deleteAsRoot(env, image, d.getRemote());
+            }
+        }
+    }
+
+    /**
+     * Finds other overlays of the workspace which are not open any more, though they were never closed:
+     * their volume is gone, or they are older than the build and no container mounts their volume.
+     * Overlays waiting to be merged are left for {@link Close}, since their volume has already been removed.
+     */
+    private @NonNull Set<String> stale(@NonNull DockerClient client, @NonNull EnvVars env, @NonNull FilePath overlays, @NonNull String self) throws IOException, InterruptedException {
+        Set<String> stale = new HashSet<>();
+        List<FilePath> dirs = overlays.listDirectories();
+        for (FilePath d : dirs != null ? dirs : Collections.<FilePath>emptyList()) {
+            String name = d.getName();
+            if (name.startsWith(".") || name.equals(self) || d.child(PENDING).exists()) {
+                continue;
+            }
+            String v = VOLUME_PREFIX + name;
+            if (!client.volumeExists(env, v) || d.lastModified() < since && !client.isVolumeInUse(env, v)) {
+                stale.add(name);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Whether a kernel release such as {@code 5.15.0-91-generic} supports the {@code userxattr} overlay option.
+     */
+    static boolean supportsUserXattr(@CheckForNull String release) {
+        Matcher m = KERNEL_VERSION.matcher(release != null ? release : "");
+        if (!m.lookingAt()) {
+            return false;
+        }
+        int major = Integer.parseInt(m.group(1));
+        return major > 5 || major == 5 && Integer.parseInt(m.group(2)) >= 11;
+    }
+
+    private static final class SupportsUserXattr extends MasterToSlaveFileCallable<Boolean> {
+
+        private static final long serialVersionUID = 1;
+
+        @Override public Boolean invoke(File f, VirtualChannel channel) {
+            return supportsUserXattr(System.getProperty("os.version"));
+        }
+
+    }
+
+    /**
+     * What closing an overlay did.
+     */
+    static final class Outcome implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        /** Overlays merged, including earlier ones which had been waiting. */
+        int merged;
+        /** Files merged. */
+        int changes;
+        /** Other overlays of the workspace still open. */
+        int waiting;
+        /** Other overlays of the workspace discarded since they were never closed. */
+        int stale;
+        /** Names of directories to delete. */
+        final List<String> trash = new ArrayList<>();
+
+    }
+
+    /**
+     * Marks an overlay as closed, with a lock on the directory holding the overlays of a workspace
+     * so that concurrent closes agree on which is last and merges everything pending.
+     * Runs on that directory, returning null if the overlay was already closed.
+     */
+    static final class Close extends MasterToSlaveFileCallable<Outcome> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String id;
+        private final boolean merge;
+        private final String target;
+        private final Set<String> stale;
+
+        Close(String id, boolean merge, String target) {
+            this(id, merge, target, Collections.emptySet());
+        }
+
+        /**
+         * @param stale names of other overlays which are not open although they were never closed
+         */
+        Close(String id, boolean merge, String target, Set<String> stale) {
+            this.id = id;
+            this.merge = merge;
+            this.target = target;
+            this.stale = stale;
+        }
+
+        @Override public Outcome invoke(File overlays, VirtualChannel channel) throws IOException, InterruptedException {
+            // File locks are held per process, so overlays closing on the same agent also need to wait for each other here.
+            synchronized (Close.class) {
+                return closeLocked(overlays, channel);
+            }
+        }
+
+        private Outcome closeLocked(File overlays, VirtualChannel channel) throws IOException, InterruptedException {
+            try (FileChannel lockFile = FileChannel.open(new File(overlays, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockFile.lock()) {
+                File self = new File(overlays, id);
+                if (!self.isDirectory()) {
+                    return null;
+                }
+                Outcome outcome = new Outcome();
+                if (merge) {
+                    Files.write(new File(self, PENDING).toPath(), new byte[0]);
+                } else {
+                    outcome.trash.add(toTrash(self));
+                }
+                List<File> pending = new ArrayList<>();
+                File[] children = overlays.listFiles();
+                for (File child : children != null ? children : new File[0]) {
+                    if (!child.isDirectory() || child.getName().startsWith(".")) {
+                        continue;
+                    }
+                    if (new File(child, PENDING).isFile()) {
+                        pending.add(child);
+                    } else if (stale.contains(child.getName())) {
+                        outcome.trash.add(toTrash(child));
+                        outcome.stale++;
+                    } else {
+                        outcome.waiting++;
+                    }
+                }
+                if (outcome.waiting > 0) {
+                    return outcome;
+                }
+                pending.sort(Comparator.<File>comparingLong(d -> new File(d, PENDING).lastModified()).thenComparing(File::getName));
+                for (File d : pending) {
+                    outcome.changes += new Merge(target).invoke(new File(d, "upper"), channel);
+                    outcome.merged++;
+                    outcome.trash.add(toTrash(d));
+                }
+                return outcome;
+            }
+        }
+
+        /**
+         * Renames a closed overlay out of the way, so that it no longer counts as open even if it cannot be deleted right away.
+         */
+        private static String toTrash(File d) throws IOException {
+            String name = ".closed-" + d.getName();
+            Files.move(d.toPath(), d.toPath().resolveSibling(name));
+            return name;
+        }
+
+    }
+
+    static final class Merge extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String target;
+
+        Merge(String target) {
+            this.target = target;
+        }
+
+        @Override public Integer invoke(File upper, VirtualChannel channel) throws IOException, InterruptedException {
+            Path from = upper.toPath();
+            Path to = new File(target).toPath();
+            int[] count = {0};
+            Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path dest = to.resolve(from.relativize(dir).toString());
+                    if (!dir.equals(from) && isOpaque(dir)) {
+                        // The container deleted the directory and created it again: nothing of the old one is left.
+                        Util.deleteRecursive(dest.toFile());
+                    }
+                    if (!Files.isDirectory(dest, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.deleteIfExists(dest);
+                        Files.createDirectories(dest);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (file.getFileName().toString().equals(OPAQUE_MARKER)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path dest = to.resolve(from.relativize(file).toString());
+                    if (attrs.isOther()) {
+                        // A whiteout: the container deleted this file.
+                        Util.deleteRecursive(dest.toFile());
+                    } else {
+                        if (Files.isDirectory(dest, LinkOption.NOFOLLOW_LINKS)) {
+                            Util.deleteRecursive(dest.toFile());
+                        }
+                        Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                    }
+                    count[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return count[0];
+        }
+
+        private static boolean isOpaque(Path dir) {
+            if (Files.exists(dir.resolve(OPAQUE_MARKER), LinkOption.NOFOLLOW_LINKS)) {
+                return true;
+            }
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(dir, UserDefinedFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+            if (view == null) {
+                return false;
+            }
+            try {
+                if (!view.list().contains(OPAQUE_XATTR)) {
+                    return false;
+                }
+                ByteBuffer value = ByteBuffer.allocate(view.size(OPAQUE_XATTR));
+                view.read(OPAQUE_XATTR, value);
+                value.flip();
+                return "y".equals(StandardCharsets.US_ASCII.decode(value).toString());
+            } catch (IOException | UnsupportedOperationException x) {
+                return false;
+            }
+        }
+
+    }
+
+}
@@ -30,6 +30,8 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
 import hudson.model.Node;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.VersionNumber;
@@ -38,8 +40,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
@@ -49,14 +51,17 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.docker.commons.fingerprint.ContainerRecord;
 import org.jenkinsci.plugins.docker.commons.tools.DockerTool;
@@ -92,6 +97,9 @@ public class DockerClient {
     private final Launcher launcher;
     private final @CheckForNull Node node;
     private final @CheckForNull String toolName;
+    private @CheckForNull DockerCommandRecorder buildRecorder;
+    private @CheckForNull String volumeLabel = "z";
+    private int runTimeout;
 
     public DockerClient(@NonNull Launcher launcher, @CheckForNull Node node, @CheckForNull String toolName) {
         this.launcher = launcher;
@@ -99,6 +107,70 @@ public class DockerClient {
         this.toolName = toolName;
     }
 
+    /**
+     * Also report commands run by this client to the given recorder, in addition to {@link DockerCommandStatistics#GLOBAL}.
+     * @param buildRecorder typically the statistics of the current build
+     */
+    public void setBuildRecorder(@CheckForNull DockerCommandRecorder buildRecorder) {
+        this.buildRecorder = buildRecorder;
+    }
+
+    /**
+     * Choose how volumes bound by {@link #run} are relabeled for SELinux.
+     * @param volumeLabel {@code z} (the default) for a label shared between containers, {@code Z} for a private label, or null not to relabel
+     */
+    public void setVolumeLabel(@CheckForNull String volumeLabel) {
+        this.volumeLabel = volumeLabel;
+    }
+
+    /**
+     * Lets {@link #run} take longer than {@link #CLIENT_TIMEOUT}.
+     * @param runTimeout maximum time (in seconds) to wait for {@code docker run}, as when it may itself have to pull a large image; 0 for {@link #CLIENT_TIMEOUT}
+     */
+    public void setRunTimeout(int runTimeout) {
+        this.runTimeout = runTimeout;
+    }
+
+    /**
+     * Check whether the Docker daemon enforces SELinux labels on containers.
+     * @param launchEnv Docker client launch environment.
+     * @return false only if the daemon reports its security options without SELinux
+     */
+    public boolean isSELinuxEnabled(@NonNull EnvVars launchEnv) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "info", "--format", "{{.SecurityOptions}}");
+        return result.getStatus() != 0 || result.getOut().contains("selinux");
+    }
+
+    /**
+     * Looks up the storage driver of the daemon, which with the containerd image store names its snapshotter.
+     * @param launchEnv Docker client launch environment, selecting the daemon.
+     * @return for example {@code overlay2} or {@code stargz}, or null if the daemon could not be asked
+     */
+    public @CheckForNull String getStorageDriver(@NonNull EnvVars launchEnv) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "info", "--format", "{{.Driver}}");
+        String driver = result.getOut().trim();
+        return result.getStatus() == 0 && !driver.isEmpty() ? driver : null;
+    }
+
+    /**
+     * Counts the containers running on the daemon, as a measure of how busy it is.
+     * @param launchEnv Docker client launch environment, selecting the daemon.
+     * @param timeout Seconds after which to give up on the daemon, typically much less than {@link #CLIENT_TIMEOUT}.
+     * @return the count, or null if the daemon could not be reached
+     */
+    public @CheckForNull Integer getRunningContainers(@NonNull EnvVars launchEnv, int timeout) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LaunchResult result = launch(launchEnv, true, null, new ArgumentListBuilder("info", "--format", "{{.ContainersRunning}}"), out, timeout);
+        if (result.getStatus() != 0) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(out.toString(Charset.defaultCharset().name()).trim());
+        } catch (NumberFormatException x) {
+            return null;
+        }
+    }
+
     /**
      * Run a docker image.
      *
@@ -114,6 +186,25 @@ public class DockerClient {
      * @return The container ID.
      */
     public String run(@NonNull EnvVars launchEnv, @NonNull String image, @CheckForNull String args, @CheckForNull String workdir, @NonNull Map<String, String> volumes, @NonNull Collection<String> volumesFromContainers, @NonNull EnvVars containerEnv, @NonNull String user, @NonNull String... command) throws IOException, InterruptedException {
+        return run(launchEnv, image, args, workdir, volumes, volumesFromContainers, containerEnv, Collections.<String, String>emptyMap(), user, command);
+    }
+
+    /**
+     * Run a docker image with labels.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param image The image name.
+     * @param args Any additional arguments for the {@code docker run} command.
+     * @param workdir The working directory in the container, or {@code null} for default.
+     * @param volumes Volumes to be bound. Supply an empty list if no volumes are to be bound.
+     * @param volumesFromContainers Mounts all volumes from the given containers.
+     * @param containerEnv Environment variables to set in container.
+     * @param labels Labels to set on the container.
+     * @param user The <strong>uid:gid</strong> to execute the container command as. Use {@link #whoAmI()}.
+     * @param command The command to execute in the image container being run.
+     * @return The container ID.
+     */
+    public String run(@NonNull EnvVars launchEnv, @NonNull String image, @CheckForNull String args, @CheckForNull String workdir, @NonNull Map<String, String> volumes, @NonNull Collection<String> volumesFromContainers, @NonNull EnvVars containerEnv, @NonNull Map<String, String> labels, @NonNull String user, @NonNull String... command) throws IOException, InterruptedException {
         ArgumentListBuilder argb = new ArgumentListBuilder();
 
         argb.add("run", "-t", "-d");
@@ -130,7 +221,7 @@ public class DockerClient {
             argb.add("-w", workdir);
         }
         for (Map.Entry<String, String> volume : volumes.entrySet()) {
-            argb.add("-v", volume.getKey() + ":" + volume.getValue() + ":rw,z");
+            argb.add("-v", volume.getKey() + ":" + volume.getValue() + (volumeLabel != null ? ":rw," + volumeLabel : ":rw"));
         }
         for (String containerId : volumesFromContainers) {
             argb.add("--volumes-from", containerId);
@@ -139,9 +230,12 @@ public class DockerClient {
             argb.add("-e");
             argb.addMasked(variable.getKey()+"="+variable.getValue());
         }
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            argb.add("--label", label.getKey() + "=" + label.getValue());
+        }
         argb.add(image).add(command);
 
-        LaunchResult result = launch(launchEnv, false, null, argb);
+        LaunchResult result = launch(launchEnv, false, null, argb, runTimeout > 0 ? runTimeout : CLIENT_TIMEOUT);
         if (result.getStatus() == 0) {
             return result.getOut();
         } else {
@@ -150,23 +244,30 @@ public class DockerClient {
     }
 
     public List<String> listProcess(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
-        LaunchResult result = launch(launchEnv, false, "top", containerId, "-eo", "pid,comm");
+        List<String> processes = new ArrayList<>();
+        List<String> unexpected = new ArrayList<>();
+        boolean[] header = {true};
+        LaunchResult result = launchLines(launchEnv, false, line -> {
+            if (line.isBlank()) {
+                return;
+            }
+            if (header[0]) {
+                header[0] = false; // ps header
+                return;
+            }
+            final StringTokenizer stringTokenizer = new StringTokenizer(line, " ");
+            if (stringTokenizer.countTokens() < 2) {
+                unexpected.add(line);
+                return;
+            }
+            stringTokenizer.nextToken(); // PID
+            processes.add(stringTokenizer.nextToken()); // COMMAND
+        }, "top", containerId, "-eo", "pid,comm");
         if (result.getStatus() != 0) {
             throw new IOException(String.format("Failed to run top '%s'. Error: %s", containerId, result.getErr()));
         }
-        List<String> processes = new ArrayList<>();
-        try (Reader r = new StringReader(result.getOut());
-             BufferedReader in = new BufferedReader(r)) {
-            String line;
-            in.readLine(); // ps header
-            while ((line = in.readLine()) != null) {
-                final StringTokenizer stringTokenizer = new StringTokenizer(line, " ");
-                if (stringTokenizer.countTokens() < 2) {
-                    throw new IOException("Unexpected `docker top` output : "+line);
-                }
-                stringTokenizer.nextToken(); // PID
-                processes.add(stringTokenizer.nextToken()); // COMMAND
-            }
+        if (!unexpected.isEmpty()) {
+            throw new IOException("Unexpected `docker top` output : " + unexpected.get(0));
         }
         return processes;
     }
@@ -191,6 +292,28 @@ public class DockerClient {
         }
     }
 
+    /**
+     * Stop a container which does not need a graceful shutdown, such as one running {@code cat}.
+     *
+     * <p>
+     * Unlike {@link #stop(EnvVars, String)} this does not give the container any time to exit:
+     * it runs a single {@code docker rm -f --volumes}, which kills the container as it removes it,
+     * or only {@code docker kill} if property SKIP_RM_ON_STOP is set.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     */
+    public void forceStop(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
+        if (SKIP_RM_ON_STOP) {
+            LaunchResult result = launch(launchEnv, false, "kill", containerId);
+            if (result.getStatus() != 0) {
+                throw new IOException(String.format("Failed to kill container '%s'.", containerId));
+            }
+        } else {
+            rm(launchEnv, containerId);
+        }
+    }
+
     /**
      * Remove a container.
      * 
@@ -205,6 +328,206 @@ public class DockerClient {
         }
     }
 
+    /**
+     * Create a named volume unless it already exists.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     * @param labels Labels to set on the volume if it is created.
+     * @return true if the volume was created by this call
+     */
+    public boolean createVolume(@NonNull EnvVars launchEnv, @NonNull String name, @NonNull Map<String, String> labels) throws IOException, InterruptedException {
+        if (volumeExists(launchEnv, name)) {
+            return false;
+        }
+        ArgumentListBuilder args = new ArgumentListBuilder("volume", "create");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            args.add("--label", label.getKey() + "=" + label.getValue());
+        }
+        args.add(name);
+        LaunchResult result = launch(launchEnv, false, null, args);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to create volume '%s'. Error: %s", name, result.getErr()));
+        }
+        return true;
+    }
+
+    /**
+     * Whether a named volume exists.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     */
+    public boolean volumeExists(@NonNull EnvVars launchEnv, @NonNull String name) throws IOException, InterruptedException {
+        return launch(launchEnv, true, "volume", "inspect", "-f", "{{.Name}}", name).getStatus() == 0;
+    }
+
+    /**
+     * Whether any container, running or not, mounts a volume.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     */
+    public boolean isVolumeInUse(@NonNull EnvVars launchEnv, @NonNull String name) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "ps", "--all", "--quiet", "--filter", "volume=" + name);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to list containers using volume '%s'. Error: %s", name, result.getErr()));
+        }
+        return !result.getOut().trim().isEmpty();
+    }
+
+    /**
+     * Create a volume mounting an overlay of host directories.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     * @param lower The read-only lower directory.
+     * @param upper An empty directory to receive changes.
+     * @param work An empty directory on the same filesystem as {@code upper}.
+     * @param userxattr Whether the kernel should keep its markers in {@code user.overlay.*} extended attributes, readable without root.
+     * @param labels Labels to set on the volume.
+     */
+    public void createOverlayVolume(@NonNull EnvVars launchEnv, @NonNull String name, @NonNull String lower, @NonNull String upper, @NonNull String work, boolean userxattr, @NonNull Map<String, String> labels) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder("volume", "create", "--driver", "local", "--opt", "type=overlay", "--opt", "device=overlay",
+            "--opt", "o=lowerdir=" + lower + ",upperdir=" + upper + ",workdir=" + work + (userxattr ? ",userxattr" : ""));
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            args.add("--label", label.getKey() + "=" + label.getValue());
+        }
+        args.add(name);
+        LaunchResult result = launch(launchEnv, false, null, args);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to create overlay volume '%s'. Error: %s", name, result.getErr()));
+        }
+    }
+
+    /**
+     * Remove a volume.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     */
+    public void rmVolume(@NonNull EnvVars launchEnv, @NonNull String name) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, false, "volume", "rm", name);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to remove volume '%s'. Error: %s", name, result.getErr()));
+        }
+    }
+
+    /**
+     * List the volumes carrying a label.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param label The label key.
+     * @return the volume names
+     */
+    public List<String> listVolumes(@NonNull EnvVars launchEnv, @NonNull String label) throws IOException, InterruptedException {
+        List<String> volumes = new ArrayList<>();
+        LaunchResult result = launchLines(launchEnv, true, line -> {
+            if (!line.isBlank()) {
+                volumes.add(line.trim());
+            }
+        }, "volume", "ls", "-q", "--filter", "label=" + label);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to list volumes. Error: %s", result.getErr()));
+        }
+        return volumes;
+    }
+
+    /**
+     * Delete a host directory containing files only root may delete, using a throwaway container.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param image An image providing {@code rm}.
+     * @param dir An absolute path on the Docker host.
+     */
+    public void deleteAsRoot(@NonNull EnvVars launchEnv, @NonNull String image, @NonNull String dir) throws IOException, InterruptedException {
+        int slash = dir.lastIndexOf('/');
+        if (slash <= 0 || slash == dir.length() - 1) {
+            throw new IOException("Refusing to delete " + dir);
+        }
+        LaunchResult result = launch(launchEnv, false, "run", "--rm", "-u", "0:0", "--entrypoint", "rm", "-v", dir.substring(0, slash) + ":/parent", image, "-rf", "/parent/" + dir.substring(slash + 1));
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to delete '%s'. Error: %s", dir, result.getErr()));
+        }
+    }
+
+    /**
+     * Give a fresh volume to the user a container will run as, since Docker creates volumes owned by root.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param name The volume name.
+     * @param image An image providing {@code chown}, typically the one which will use the volume.
+     * @param user The <strong>uid:gid</strong> to own the volume.
+     */
+    public void chownVolume(@NonNull EnvVars launchEnv, @NonNull String name, @NonNull String image, @NonNull String user) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, false, "run", "--rm", "-u", "0:0", "--entrypoint", "chown", "-v", name + ":/cache", image, user, "/cache");
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to change the owner of volume '%s'. Error: %s", name, result.getErr()));
+        }
+    }
+
+    /**
+     * Remove several containers with a single command.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param containerIds The container IDs.
+     * @throws IOException if any of the containers could not be removed, for example because it no longer exists
+     */
+    public void rm(@NonNull EnvVars launchEnv, @NonNull Collection<String> containerIds) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder("rm", "-f", "--volumes");
+        args.add(containerIds);
+        LaunchResult result = launch(launchEnv, false, null, args);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to rm containers %s. Error: %s", containerIds, result.getErr()));
+        }
+    }
+
+    /**
+     * List containers, running or not, carrying a given label.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param filter The label to look for, as {@code key} or {@code key=value}.
+     * @param valueLabels Keys of other labels to report.
+     * @return The IDs of the matching containers, mapped to the values of {@code valueLabels} on each (empty where unset).
+     */
+    public Map<String, List<String>> listContainers(@NonNull EnvVars launchEnv, @NonNull String filter, @NonNull String... valueLabels) throws IOException, InterruptedException {
+        StringBuilder format = new StringBuilder("{{.ID}}");
+        for (String label : valueLabels) {
+            format.append("\t{{.Label \"").append(label).append("\"}}");
+        }
+        LaunchResult result = launch(launchEnv, true, "ps", "--all", "--no-trunc", "--filter", "label=" + filter, "--format", format.toString());
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to list containers with label '%s'. Error: %s", filter, result.getErr()));
+        }
+        Map<String, List<String>> containers = new LinkedHashMap<>();
+        for (String line : result.getOut().split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> fields = new ArrayList<>(Arrays.asList(line.split("\t", -1)));
+            String id = fields.remove(0);
+            while (fields.size() < valueLabels.length) {
+                fields.add("");
+            }
+            containers.put(id, fields);
+        }
+        return containers;
+    }
+
+    /**
+     * Start pulling an image without waiting for the pull to complete.
+     * The Docker daemon merges concurrent pulls of the same image, so a later {@code docker pull} simply waits for this one.
+     *
+     * @param launchEnv Docker client launch environment.
+     * @param image The image name.
+     * @return The running {@code docker pull} process.
+     */
+    public Proc startPull(@NonNull EnvVars launchEnv, @NonNull String image) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder(DockerTool.getExecutable(toolName, node, launcher.getListener(), launchEnv), "pull", image);
+        LOGGER.log(Level.FINE, "Starting docker command {0}", args);
+        return launcher.launch().quiet(true).cmds(args).envs(launchEnv).stdout(OutputStream.nullOutputStream()).start();
+    }
+
     /**
      * Inspect a docker image/container.
      * @param launchEnv Docker client launch environment.
@@ -221,6 +544,104 @@ public class DockerClient {
         }
     }
     
+    private static final Pattern NO_SUCH_CONTAINER = Pattern.compile("No such (container|object)");
+
+    /**
+     * Check whether a container is running.
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     * @return true if it is running, false if it stopped or does not exist
+     * @throws IOException if the daemon could not tell, for example because it could not be reached
+     */
+    public boolean isRunning(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "inspect", "-f", "{{.State.Running}}", containerId);
+        if (result.getStatus() != 0) {
+            if (NO_SUCH_CONTAINER.matcher(result.getErr()).find()) {
+                return false;
+            }
+            throw new IOException(String.format("Failed to inspect container '%s': %s", containerId, result.getErr().trim()));
+        }
+        String running = result.getOut().trim();
+        if (!running.equals("true") && !running.equals("false")) {
+            throw new IOException(String.format("Unexpected state of container '%s': %s", containerId, running));
+        }
+        return Boolean.parseBoolean(running);
+    }
+
+    /**
+     * Check the state of a container.
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     * @return {@code stopped} if the container is not running (or does not exist),
+     *         {@code none} if its image defines no {@code HEALTHCHECK},
+     *         else its health status: {@code starting}, {@code healthy} or {@code unhealthy}
+     */
+    public @NonNull String getHealth(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "inspect", "-f", "{{if .State.Running}}{{if .State.Health}}{{.State.Health.Status}}{{else}}none{{end}}{{else}}stopped{{end}}", containerId);
+        return result.getStatus() == 0 ? result.getOut() : "stopped";
+    }
+
+    /**
+     * Find the addresses of a container on the networks it is attached to.
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     * @return IP addresses, possibly empty
+     */
+    public @NonNull List<String> getIPAddresses(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
+        List<String> addresses = new ArrayList<>();
+        LaunchResult result = launchLines(launchEnv, true, line -> {
+            if (!line.isBlank()) {
+                addresses.add(line.trim());
+            }
+        }, "inspect", "-f", "{{range .NetworkSettings.Networks}}{{.IPAddress}}\n{{end}}", containerId);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to inspect container '%s'. Error: %s", containerId, result.getErr()));
+        }
+        return addresses;
+    }
+
+    /**
+     * Find the host port a container port is published on.
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     * @param port The TCP port in the container.
+     * @return the host port, or null if it is not published
+     */
+    public @CheckForNull Integer getPublishedPort(@NonNull EnvVars launchEnv, @NonNull String containerId, int port) throws IOException, InterruptedException {
+        LaunchResult result = launch(launchEnv, true, "port", containerId, port + "/tcp");
+        if (result.getStatus() != 0 || result.getOut().isEmpty()) {
+            return null;
+        }
+        // e.g. 0.0.0.0:32768 followed by [::]:32768
+        String first = result.getOut().split("\n")[0].trim();
+        try {
+            return Integer.valueOf(first.substring(first.lastIndexOf(':') + 1));
+        } catch (NumberFormatException x) {
+            throw new IOException("Unexpected `docker port` output: " + first, x);
+        }
+    }
+
+    /**
+     * Find all published ports of a container at once.
+     * @param launchEnv Docker client launch environment.
+     * @param containerId The container ID.
+     * @return host bindings (e.g. {@code 0.0.0.0:32768}) keyed by container port and protocol (e.g. {@code 80/tcp}), in {@code docker port} order
+     */
+    public @NonNull Map<String, List<String>> getPorts(@NonNull EnvVars launchEnv, @NonNull String containerId) throws IOException, InterruptedException {
+        Map<String, List<String>> ports = new LinkedHashMap<>();
+        LaunchResult result = launchLines(launchEnv, true, line -> {
+            // e.g. 80/tcp -> 0.0.0.0:32768
+            int arrow = line.indexOf(" -> ");
+            if (arrow != -1) {
+                ports.computeIfAbsent(line.substring(0, arrow).trim(), k -> new ArrayList<>()).add(line.substring(arrow + 4).trim());
+            }
+        }, "port", containerId);
+        if (result.getStatus() != 0) {
+            throw new IOException(String.format("Failed to list ports of container '%s'. Error: %s", containerId, result.getErr()));
+        }
+        return ports;
+    }
+
     /**
      * Inspect a docker image/container.
      * @param launchEnv Docker client launch environment.
@@ -295,6 +716,27 @@ public class DockerClient {
         return launch(launchEnv, quiet, pwd, new ArgumentListBuilder(args));
     }
     private LaunchResult launch(@NonNull EnvVars launchEnv, boolean quiet, FilePath pwd, @NonNull ArgumentListBuilder args) throws IOException, InterruptedException {
+        return launch(launchEnv, quiet, pwd, args, CLIENT_TIMEOUT);
+    }
+    private LaunchResult launch(@NonNull EnvVars launchEnv, boolean quiet, FilePath pwd, @NonNull ArgumentListBuilder args, int timeout) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LaunchResult result = launch(launchEnv, quiet, pwd, args, out, timeout);
+        result.setOut(out.toString(Charset.defaultCharset().name()));
+        return result;
+    }
+
+    /**
+     * Runs a command, handing each line of its standard output to {@code lines} as it arrives instead of buffering it all.
+     * {@code lines} is called on another thread, but all calls have been made by the time this method returns.
+     * @return the result, with an empty {@link LaunchResult#getOut}
+     */
+    private LaunchResult launchLines(@NonNull EnvVars launchEnv, boolean quiet, @NonNull Consumer<String> lines, @NonNull String... args) throws IOException, InterruptedException {
+        try (LineOutputStream out = new LineOutputStream(lines)) {
+            return launch(launchEnv, quiet, null, new ArgumentListBuilder(args), out, CLIENT_TIMEOUT);
+        }
+    }
+
+    private LaunchResult launch(@NonNull EnvVars launchEnv, boolean quiet, FilePath pwd, @NonNull ArgumentListBuilder args, @NonNull OutputStream stdout, int timeout) throws IOException, InterruptedException {
         // Prepend the docker command
         args.prepend(DockerTool.getExecutable(toolName, node, launcher.getListener(), launchEnv));
 
@@ -309,15 +751,95 @@ public class DockerClient {
         }
 
         LaunchResult result = new LaunchResult();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteArrayOutputStream err = new ByteArrayOutputStream();
-        result.setStatus(procStarter.quiet(quiet).cmds(args).envs(launchEnv).stdout(out).stderr(err).start().joinWithTimeout(CLIENT_TIMEOUT, TimeUnit.SECONDS, launcher.getListener()));
-        final String charsetName = Charset.defaultCharset().name();
-        result.setOut(out.toString(charsetName));
-        result.setErr(err.toString(charsetName));
+        CountingOutputStream out = new CountingOutputStream(stdout);
+        ByteArrayOutputStream err = new BoundedOutputStream(MAX_STDERR);
+        DockerCommandEvent event = new DockerCommandEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Proc proc = procStarter.quiet(quiet).cmds(args).envs(launchEnv).stdout(out).stderr(err).start();
+        started(args);
+        result.setStatus(timeout > 0 ? proc.joinWithTimeout(timeout, TimeUnit.SECONDS, launcher.getListener()) : proc.join());
+        event.end();
+        record(args, event, System.nanoTime() - start, result.getStatus(), out.getByteCount());
+        result.setErr(err.toString(Charset.defaultCharset().name()));
         return result;
     }
 
+    /**
+     * Maximum amount of standard error (in bytes) kept from a command, for use in error messages.
+     */
+    static final int MAX_STDERR = 64 * 1024;
+
+    /**
+     * Keeps at most a given number of bytes and silently drops the rest.
+     */
+    static final class BoundedOutputStream extends ByteArrayOutputStream {
+
+        private final int limit;
+
+        BoundedOutputStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override public synchronized void write(int b) {
+            if (count < limit) {
+                super.write(b);
+            }
+        }
+
+        @Override public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, Math.max(0, Math.min(len, limit - count)));
+        }
+
+    }
+
+    private static final class LineOutputStream extends LineTransformationOutputStream {
+
+        private final Consumer<String> lines;
+
+        LineOutputStream(Consumer<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override protected void eol(byte[] b, int len) {
+            lines.accept(trimEOL(new String(b, 0, len, Charset.defaultCharset())));
+        }
+
+    }
+
+    private void started(@NonNull ArgumentListBuilder args) {
+        String command = command(args);
+        DockerCommandStatistics.GLOBAL.started(command);
+        if (buildRecorder != null) {
+            buildRecorder.started(command);
+        }
+    }
+
+    private static String command(@NonNull ArgumentListBuilder args) {
+        List<String> argList = args.toList();
+        return argList.size() > 1 ? argList.get(1) : argList.get(0);
+    }
+
+    /**
+     * Reports a finished {@code docker} command to {@link DockerCommandStatistics} and Flight Recorder.
+     * @param args the command line, starting with the executable
+     * @param event an event which has been ended
+     */
+    void record(@NonNull ArgumentListBuilder args, @NonNull DockerCommandEvent event, long durationNanos, int status, long outputBytes) {
+        String command = command(args);
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.arguments = args.toString();
+            event.status = status;
+            event.outputBytes = outputBytes;
+            event.commit();
+        }
+        DockerCommandStatistics.GLOBAL.record(command, durationNanos, status, outputBytes);
+        if (buildRecorder != null) {
+            buildRecorder.record(command, durationNanos, status, outputBytes);
+        }
+    }
+
     /**
      * Who is executing this {@link DockerClient} instance.
      *
@@ -398,15 +920,15 @@ public class DockerClient {
      * @throws InterruptedException Interrupted
      */
     public List<String> getVolumes(@NonNull EnvVars launchEnv, String containerID) throws IOException, InterruptedException {
-        LaunchResult result = launch(launchEnv, true, "inspect", "-f", "{{range.Mounts}}{{.Destination}}\n{{end}}", containerID);
+        List<String> volumes = new ArrayList<>();
+        LaunchResult result = launchLines(launchEnv, true, line -> {
+            if (!line.isBlank()) {
+                volumes.add(line.trim().replace("\\", "/"));
+            }
+        }, "inspect", "-f", "{{range.Mounts}}{{.Destination}}\n{{end}}", containerID);
         if (result.getStatus() != 0) {
             return Collections.emptyList();
         }
-
-        String volumes = result.getOut();
-        if (volumes.isEmpty()) {
-            return Collections.emptyList();
-        }
-        return Arrays.asList(volumes.replace("\\", "/").split("\\n"));
+        return volumes;
     }
 }
@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a {@code docker} command run by {@link DockerClient} and waited for.
+ */
+@Name("org.jenkinsci.plugins.docker.workflow.DockerCommand")
+@Label("Docker Command")
+@Category({"Jenkins", "Docker Pipeline"})
+@Description("A docker CLI command run by Docker Pipeline")
+final class DockerCommandEvent extends jdk.jfr.Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Arguments")
+    @Description("Full command line, with secrets masked")
+    String arguments;
+
+    @Label("Exit Status")
+    int status;
+
+    @Label("Output Bytes")
+    long outputBytes;
+
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Receives the outcome of each {@code docker} command.
+ * @see DockerClient#setBuildRecorder
+ */
+@Restricted(NoExternalUse.class)
+public interface DockerCommandRecorder {
+
+    /**
+     * Called when a command is launched, whether or not anything will wait for it to finish.
+     * @param command the subcommand, such as {@code exec}
+     */
+    void started(@NonNull String command);
+
+    /**
+     * Called when a command has been waited for.
+     * @param command the subcommand, such as {@code inspect}
+     * @param durationNanos how long the command took
+     * @param status the exit code
+     * @param outputBytes the size of the standard output, or 0 if it was not captured
+     */
+    void record(@NonNull String command, long durationNanos, int status, long outputBytes);
+
+}
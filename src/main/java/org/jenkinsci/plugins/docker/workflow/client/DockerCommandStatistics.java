@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Latency histograms of {@code docker} commands run by this plugin, by subcommand ({@code run}, {@code top}, {@code exec}…).
+ * Recording is lock-free so it can be done on every command.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerCommandStatistics implements DockerCommandRecorder {
+
+    /** Statistics for all commands run on this controller since startup. */
+    public static final DockerCommandStatistics GLOBAL = new DockerCommandStatistics();
+
+    /** Upper bounds of the histogram buckets, in milliseconds; the last bucket is unbounded. */
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override public void started(@NonNull String command) {
+        histograms.computeIfAbsent(command, Histogram::new).started.increment();
+    }
+
+    @Override public void record(@NonNull String command, long durationNanos, int status, long outputBytes) {
+        histograms.computeIfAbsent(command, Histogram::new).record(durationNanos, status, outputBytes);
+    }
+
+    /**
+     * @return a snapshot per subcommand, sorted by name
+     */
+    public @NonNull List<Histogram> getHistograms() {
+        List<Histogram> result = new ArrayList<>(histograms.values());
+        result.sort((a, b) -> a.command.compareTo(b.command));
+        return result;
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    public static final class Histogram {
+
+        private final String command;
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder started = new LongAdder();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder outputBytes = new LongAdder();
+
+        Histogram(String command) {
+            this.command = command;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationNanos, int status, long bytes) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            int i = 0;
+            while (i < BOUNDS.length && millis > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            count.increment();
+            if (status != 0) {
+                failures.increment();
+            }
+            totalNanos.add(durationNanos);
+            maxNanos.accumulate(durationNanos);
+            outputBytes.add(bytes);
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return how many commands were launched, including those still running or never waited for
+         */
+        public long getStarted() {
+            return started.sum();
+        }
+
+        /**
+         * @return how many commands were waited for, and so are included in the timings
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n);
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        public long getOutputBytes() {
+            return outputBytes.sum();
+        }
+
+        /**
+         * @param percent e.g. 99
+         * @return the upper bound (in milliseconds) of the bucket holding that percentile, or the maximum for the last bucket
+         */
+        public long getPercentileMillis(int percent) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percent / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return BOUNDS[i];
+                }
+            }
+            return getMaxMillis();
+        }
+
+    }
+
+}
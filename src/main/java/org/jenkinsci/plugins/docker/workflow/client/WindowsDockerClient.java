@@ -30,7 +30,7 @@ public class WindowsDockerClient extends DockerClient {
     }
 
     @Override
-    public String run(@NonNull EnvVars launchEnv, @NonNull String image, @CheckForNull String args, @CheckForNull String workdir, @NonNull Map<String, String> volumes, @NonNull Collection<String> volumesFromContainers, @NonNull EnvVars containerEnv, @NonNull String user, @NonNull String... command) throws IOException, InterruptedException {
+    public String run(@NonNull EnvVars launchEnv, @NonNull String image, @CheckForNull String args, @CheckForNull String workdir, @NonNull Map<String, String> volumes, @NonNull Collection<String> volumesFromContainers, @NonNull EnvVars containerEnv, @NonNull Map<String, String> labels, @NonNull String user, @NonNull String... command) throws IOException, InterruptedException {
         ArgumentListBuilder argb = new ArgumentListBuilder("docker", "run", "-d", "-t");
         if (args != null) {
             argb.addTokenized(args);
@@ -49,6 +49,9 @@ public class WindowsDockerClient extends DockerClient {
             argb.add("-e");
             argb.addMasked(WindowsUtil.quoteArgument(variable.getKey() + "=" + variable.getValue()));
         }
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            argb.add("--label", WindowsUtil.quoteArgument(label.getKey() + "=" + label.getValue()));
+        }
         argb.add(image).add(command);
 
         LaunchResult result = launch(launchEnv, false, null, argb);
@@ -128,7 +131,14 @@ public class WindowsDockerClient extends DockerClient {
         LaunchResult result = new LaunchResult();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DockerCommandEvent event = new DockerCommandEvent();
+        event.begin();
+        long start = System.nanoTime();
         result.setStatus(procStarter.quiet(quiet).cmds(argb).envs(env).stdout(out).stderr(err).start().joinWithTimeout(CLIENT_TIMEOUT, TimeUnit.SECONDS, launcher.getListener()));
+        event.end();
+        if (argb.toList().get(0).equals("docker")) {
+            record(argb, event, System.nanoTime() - start, result.getStatus(), out.size());
+        }
         final String charsetName = Charset.defaultCharset().name();
         result.setOut(out.toString(charsetName));
         result.setErr(err.toString(charsetName));
@@ -29,8 +29,10 @@ import java.util.Map;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
+import hudson.Util;
 import java.net.URL;
 import java.util.Set;
+import org.jenkinsci.plugins.docker.workflow.DockerCaches;
 import org.jenkinsci.plugins.pipeline.modeldefinition.agent.DeclarativeAgent;
 import org.jenkinsci.plugins.pipeline.modeldefinition.options.DeclarativeOption;
 import org.jenkinsci.plugins.pipeline.modeldefinition.parser.CompatibilityLoader;
@@ -40,11 +42,13 @@ import org.kohsuke.stapler.DataBoundSetter;
 public abstract class AbstractDockerAgent<D extends AbstractDockerAgent<D>> extends DeclarativeAgent<D> {
     protected String label;
     protected String args = "";
+    protected String caches;
     protected String registryUrl;
     protected String registryCredentialsId;
     protected String customWorkspace;
     protected boolean reuseNode;
     protected boolean containerPerStageRoot;
+    protected boolean prefetchImages;
 
     public @Nullable String getRegistryUrl() {
         return registryUrl;
@@ -101,6 +105,18 @@ public abstract class AbstractDockerAgent<D extends AbstractDockerAgent<D>> exte
         this.args = args;
     }
 
+    public @CheckForNull String getCaches() {
+        return caches;
+    }
+
+    /**
+     * @param caches {@code name:/path} entries separated by spaces, or a map from names to paths
+     */
+    @DataBoundSetter
+    public void setCaches(Object caches) {
+        this.caches = Util.fixEmpty(DockerCaches.format(caches));
+    }
+
     public boolean isContainerPerStageRoot() {
         return containerPerStageRoot;
     }
@@ -110,6 +126,15 @@ public abstract class AbstractDockerAgent<D extends AbstractDockerAgent<D>> exte
         this.containerPerStageRoot = containerPerStageRoot;
     }
 
+    public boolean isPrefetchImages() {
+        return prefetchImages;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchImages(boolean prefetchImages) {
+        this.prefetchImages = prefetchImages;
+    }
+
     @Override
     public void initialize(Map<String, DeclarativeOption> options, boolean explicitAgentInStage) {
         if (options.get(ContainerPerStage.SYMBOL) != null) {
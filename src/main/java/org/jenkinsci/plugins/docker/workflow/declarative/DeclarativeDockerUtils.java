@@ -24,10 +24,21 @@
 
 package org.jenkinsci.plugins.docker.workflow.declarative;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.Run;
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
+import org.jenkinsci.plugins.docker.workflow.ImageLocality;
+import org.jenkinsci.plugins.pipeline.modeldefinition.actions.ExecutionModelAction;
 import org.jenkinsci.plugins.pipeline.modeldefinition.agent.impl.Label;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTAgent;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTClosureMap;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTKey;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTMethodArg;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTStage;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTStages;
+import org.jenkinsci.plugins.pipeline.modeldefinition.ast.ModelASTValue;
 import org.jenkinsci.plugins.pipeline.modeldefinition.withscript.WithScriptScript;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
@@ -37,7 +48,12 @@ import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @see org.jenkinsci.plugins.docker.workflow.declarative.DockerLabelProvider
@@ -88,6 +104,15 @@ public class DeclarativeDockerUtils {
     @Whitelisted
     public static WithScriptScript<?> getLabelScript(AbstractDockerAgent<?> describable, CpsScript script) throws Exception {
         String targetLabel = getLabel(describable.getLabel());
+        if (describable instanceof DockerPipeline) {
+            // Qualified as Image.imageName() does, since that is how its containers are recorded.
+            DockerRegistry registry = DockerRegistry.build(describable.getRegistryUrl(), describable.getRegistryCredentialsId());
+            String image = ((DockerPipeline) describable).getImage();
+            if (registry.hasData() && image != null) {
+                image = new DockerRegistryEndpoint(registry.registry, null).imageName(image);
+            }
+            targetLabel = ImageLocality.preferredLabel(targetLabel, image);
+        }
         Label l = (Label) Label.DescriptorImpl.instanceForName("label", Collections.singletonMap("label", targetLabel));
         l.copyFlags(describable);
         l.setCustomWorkspace(describable.getCustomWorkspace());
@@ -95,6 +120,59 @@ public class DeclarativeDockerUtils {
         
     }
 
+    /**
+     * Collects the images of {@code agent docker} directives declared on stages of the current build,
+     * as far as they are known before the stages run.
+     * @param describable the top level agent, whose own image is excluded
+     * @return image names in declaration order, without duplicates
+     */
+    @Whitelisted
+    public static List<String> getStageImages(AbstractDockerAgent<?> describable) {
+        Set<String> images = new LinkedHashSet<>();
+        Run<?,?> r = currentRun();
+        if (r != null) {
+            ExecutionModelAction action = r.getAction(ExecutionModelAction.class);
+            if (action != null) {
+                for (ModelASTStages stages : action.getStagesList()) {
+                    collectStageImages(stages, images);
+                }
+            }
+        }
+        if (describable instanceof DockerPipeline) {
+            images.remove(((DockerPipeline) describable).getImage());
+        }
+        return new ArrayList<>(images);
+    }
+
+    private static void collectStageImages(@CheckForNull ModelASTStages stages, Set<String> images) {
+        if (stages == null) {
+            return;
+        }
+        for (ModelASTStage stage : stages.getStages()) {
+            ModelASTAgent agent = stage.getAgent();
+            if (agent != null && "docker".equals(agent.getAgentType().getKey())) {
+                ModelASTMethodArg variables = agent.getVariables();
+                ModelASTMethodArg image = null;
+                if (variables instanceof ModelASTValue) {
+                    // agent {docker 'image'}
+                    image = variables;
+                } else if (variables instanceof ModelASTClosureMap) {
+                    for (Map.Entry<ModelASTKey, ModelASTMethodArg> entry : ((ModelASTClosureMap) variables).getVariables().entrySet()) {
+                        if ("image".equals(entry.getKey().getKey())) {
+                            image = entry.getValue();
+                        }
+                    }
+                }
+                // Interpolated names depend on the build environment, so are only known once the stage runs.
+                if (image instanceof ModelASTValue && ((ModelASTValue) image).isLiteral() && ((ModelASTValue) image).getValue() instanceof String) {
+                    images.add((String) ((ModelASTValue) image).getValue());
+                }
+            }
+            collectStageImages(stage.getStages(), images);
+            collectStageImages(stage.getParallel(), images);
+        }
+    }
+
     @Whitelisted
     public static String getRegistryUrl() {
         return getRegistryUrl(null);
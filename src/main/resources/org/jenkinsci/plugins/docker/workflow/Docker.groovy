@@ -52,6 +52,14 @@ class Docker implements Serializable {
         }
     }
 
+    public <V> V withServer(List pool, Closure<V> body) {
+        node {
+            script.withDockerServer(pool: pool, toolName: script.env.DOCKER_TOOL_NAME) {
+                body()
+            }
+        }
+    }
+
     public <V> V withTool(String toolName, Closure<V> body) {
         node {
             script.withEnv(["PATH=${script.tool name: toolName, type: 'org.jenkinsci.plugins.docker.commons.tools.DockerTool'}/bin:${script.env.PATH}", "DOCKER_TOOL_NAME=${toolName}"]) {
@@ -60,6 +68,23 @@ class Docker implements Serializable {
         }
     }
 
+    public <V> V withNetwork(String name = null, Closure<V> body) {
+        node {
+            def isUnix = script.isUnix()
+            def network = name ?: DockerNetworks.name(script.env.BUILD_TAG)
+            script.withEnv(["${DockerNetworks.ENV_VAR}=${network}"]) {
+                shell(isUnix, 'docker network create "' + asEnv(isUnix, DockerNetworks.ENV_VAR) + '"')
+                try {
+                    body()
+                } finally {
+                    if (shell(isUnix, [script: 'docker network rm "' + asEnv(isUnix, DockerNetworks.ENV_VAR) + '"', returnStatus: true]) != 0) {
+                        script.echo "Could not remove network ${network}; containers started in it with run may still be attached"
+                    }
+                }
+            }
+        }
+    }
+
     private <V> V node(Closure<V> body) {
         if (script.env.NODE_NAME != null) {
             // Already inside a node block.
@@ -71,10 +96,56 @@ class Docker implements Serializable {
         }
     }
 
+    private <V> V phase(String phase, String subject, Closure<V> body) {
+        long start = System.currentTimeMillis()
+        try {
+            return body()
+        } finally {
+            script.dockerTimeline(phase: phase, subject: subject, start: start, end: System.currentTimeMillis())
+        }
+    }
+
     public Image image(String id) {
         new Image(this, id)
     }
 
+    public <V> V withRuns(List sidecars, Closure<V> body) {
+        node {
+            def containers = []
+            try {
+                def starts = [:]
+                for (int i = 0; i < sidecars.size(); i++) {
+                    def spec = sidecars[i] instanceof Map ? sidecars[i] : [image: sidecars[i]]
+                    Image img = spec.image instanceof Image ? spec.image : image(spec.image.toString())
+                    def index = i
+                    containers.add(null)
+                    starts[(i + ': ' + img.id).toString()] = {
+                        Container c = img.run(spec.args ?: '', spec.command ?: '')
+                        containers[index] = c
+                        script.waitForDockerContainer(containerId: c.id, port: spec.port ?: 0, timeout: spec.timeout ?: 300, toolName: script.env.DOCKER_TOOL_NAME)
+                    }
+                }
+                script.parallel(starts)
+                phase('body', containers.collect { it.id }.join(' ')) {
+                    body.call(containers)
+                }
+            } finally {
+                def stops = [:]
+                for (int i = 0; i < containers.size(); i++) {
+                    Container c = containers[i]
+                    if (c != null) {
+                        stops[(i + ': ' + c.id).toString()] = {
+                            c.stop()
+                        }
+                    }
+                }
+                if (!stops.isEmpty()) {
+                    script.parallel(stops)
+                }
+            }
+        }
+    }
+
     private Object shell(boolean isUnix, Object args) {
         isUnix ? script.sh(args) : script.bat(args)
     }
@@ -121,23 +192,38 @@ class Docker implements Serializable {
             return toQualifiedImageName(id)
         }
 
-        public <V> V inside(String args = '', Closure<V> body) {
+        // A single overload, so that inside(null) {…} is not ambiguous: anything but a Map, including null, is docker run arguments.
+        public <V> V inside(Object argsOrOptions = '', Closure<V> body) {
+            Map options = argsOrOptions instanceof Map ? (Map) argsOrOptions : [args: argsOrOptions]
+            def args = options.args ?: ''
+            def caches = DockerCaches.format(options.caches)
+            def tmpfs = options.tmpfs ?: false
+            def overlay = options.overlay
+            def execAgent = options.execAgent ?: false
+            def lazyPull = options.lazyPull ?: false
             docker.node {
                 def toRun = imageName()
                 def isUnix = docker.script.isUnix()
+                def needsPull = false
                 docker.script.withEnv(["JD_ID=${id}", "JD_TO_RUN=${toRun}"]) {
-                    if (toRun != id && docker.shell(isUnix, [script: 'docker inspect -f . "' + docker.asEnv(isUnix, 'JD_ID') + '"', returnStatus: true]) == 0) {
-                        // Can run it without registry prefix, because it was locally built.
-                        toRun = id
-                    } else {
-                        if (docker.shell(isUnix, [script: 'docker inspect -f . "' + docker.asEnv(isUnix, 'JD_TO_RUN') + '"', returnStatus: true]) != 0) {
-                            // Not yet present locally.
+                    docker.phase('probe', id) {
+                        if (toRun != id && docker.shell(isUnix, [script: 'docker inspect -f . "' + docker.asEnv(isUnix, 'JD_ID') + '"', returnStatus: true]) == 0) {
+                            // Can run it without registry prefix, because it was locally built.
+                            toRun = id
+                        } else {
+                            // Not yet present locally?
                             // withDockerContainer requires the image to be available locally, since its start phase is not a durable task.
-                            pull()
+                            needsPull = docker.shell(isUnix, [script: 'docker inspect -f . "' + docker.asEnv(isUnix, 'JD_TO_RUN') + '"', returnStatus: true]) != 0
                         }
                     }
                 }
-                docker.script.withDockerContainer(image: toRun, args: args, toolName: docker.script.env.DOCKER_TOOL_NAME) {
+                if (needsPull && lazyPull && isUnix && LazyPull.isLazy(docker.script.env.NODE_NAME, docker.script.env.DOCKER_HOST)) {
+                    // docker run fetches only what the container reads, so need not be a durable task.
+                    docker.script.echo "Starting ${toRun} without pulling it in full first"
+                } else if (needsPull) {
+                    pull()
+                }
+                docker.script.withDockerContainer(image: toRun, args: args, caches: caches, tmpfs: tmpfs, overlay: overlay, execAgent: execAgent, lazyPull: lazyPull, toolName: docker.script.env.DOCKER_TOOL_NAME) {
                     body()
                 }
             }
@@ -148,7 +234,9 @@ class Docker implements Serializable {
                 def toPull = imageName()
                 def isUnix = docker.script.isUnix()
                 docker.script.withEnv(["JD_TO_PULL=${toPull}"]) {
-                    docker.shell(isUnix, 'docker pull "' + docker.asEnv(isUnix, 'JD_TO_PULL') + '"')
+                    docker.phase('pull', toPull) {
+                        docker.shell(isUnix, 'docker pull "' + docker.asEnv(isUnix, 'JD_TO_PULL') + '"')
+                    }
                 }
             }
         }
@@ -156,7 +244,20 @@ class Docker implements Serializable {
         public Container run(String args = '', String command = "") {
             docker.node {
                 def isUnix = docker.script.isUnix()
-                def container = docker.shell(isUnix, [script: "docker run -d${args != '' ? ' ' + args : ''} ${id}${command != '' ? ' ' + command : ''}", returnStdout: true]).trim()
+                def runArgs = DockerNetworks.args(args, docker.script.env.DOCKER_NETWORK, DockerNetworks.alias(id)) ?: ''
+                // Labelled like withDockerContainer containers, so that OrphanedContainerCollector removes sidecars left behind too.
+                def labels = OrphanedContainerCollector.labelArgs("${docker.script.env.JOB_NAME}", "${docker.script.env.BUILD_NUMBER}")
+                def labelEnv = []
+                def labelArgs = ''
+                for (int i = 0; i < labels.size(); i++) {
+                    labelEnv << "JD_LABEL_${i}=${labels[i]}"
+                    labelArgs += ' --label "' + docker.asEnv(isUnix, 'JD_LABEL_' + i) + '"'
+                }
+                def container = docker.phase('run', id) {
+                    docker.script.withEnv(labelEnv) {
+                        docker.shell(isUnix, [script: "docker run -d${labelArgs}${runArgs != '' ? ' ' + runArgs : ''} ${id}${command != '' ? ' ' + command : ''}", returnStdout: true]).trim()
+                    }
+                }
                 new Container(docker, container, isUnix)
             }
         }
@@ -165,7 +266,9 @@ class Docker implements Serializable {
             docker.node {
                 Container c = run(args, command)
                 try {
-                    body.call(c)
+                    docker.phase('body', c.id) {
+                        body.call(c)
+                    }
                 } finally {
                     c.stop()
                 }
@@ -202,6 +305,7 @@ class Docker implements Serializable {
         private final Docker docker;
         private final boolean isUnix;
         public final String id;
+        private Map<String, String> ports;
 
         private Container(Docker docker, String id, boolean isUnix) {
             this.docker = docker
@@ -211,14 +315,25 @@ class Docker implements Serializable {
 
         public void stop() {
             docker.script.withEnv(["JD_ID=${id}"]) {
-                docker.shell(isUnix, 'docker stop "' + docker.asEnv(isUnix,'JD_ID') + '" && docker rm -f --volumes "' + docker.asEnv(isUnix, 'JD_ID') + '"')
+                docker.phase('stop', id) {
+                    docker.shell(isUnix, 'docker stop "' + docker.asEnv(isUnix,'JD_ID') + '" && docker rm -f --volumes "' + docker.asEnv(isUnix, 'JD_ID') + '"')
+                }
+            }
+        }
+
+        public Map<String, String> ports() {
+            if (ports == null) {
+                ports = docker.script.dockerContainerPorts(containerId: id, toolName: docker.script.env.DOCKER_TOOL_NAME)
             }
+            ports
         }
 
         public String port(int port) {
-            docker.script.withEnv(["JD_ID=${id}", "JD_PORT=${port}"]) {
-                docker.shell(isUnix, [script: 'docker port "' + docker.asEnv(isUnix, 'JD_ID') + '" "' + docker.asEnv(isUnix, 'JD_PORT') + '"', returnStdout: true]).trim()
+            def bindings = ports()[port + '/tcp']
+            if (bindings == null) {
+                docker.script.error("No public port '${port}/tcp' published for ${id}")
             }
+            bindings
         }
     }
 
@@ -26,6 +26,7 @@
 package org.jenkinsci.plugins.docker.workflow.declarative
 
 import hudson.FilePath
+import org.jenkinsci.plugins.pipeline.modeldefinition.Utils
 import org.jenkinsci.plugins.pipeline.modeldefinition.agent.DeclarativeAgentScript2
 import org.jenkinsci.plugins.workflow.cps.CpsScript
 
@@ -40,7 +41,12 @@ abstract class AbstractDockerPipelineScript<A extends AbstractDockerAgent<A>> ex
         if (describable.reuseNode && script.getContext(FilePath.class) != null) {
             configureRegistry(body)
         } else if (describable.containerPerStageRoot) {
-            DeclarativeDockerUtils.getLabelScript(describable, script).run(body)
+            DeclarativeDockerUtils.getLabelScript(describable, script).run {
+                withConfiguredRegistry {
+                    prefetchImages()
+                }
+                body.call()
+            }
         } else {
             DeclarativeDockerUtils.getLabelScript(describable, script).run {
                 configureRegistry(body)
@@ -49,13 +55,35 @@ abstract class AbstractDockerPipelineScript<A extends AbstractDockerAgent<A>> ex
     }
 
     protected void configureRegistry(Closure body) {
+        withConfiguredRegistry {
+            prefetchImages()
+            runImage(body)
+        }
+    }
+
+    protected void withConfiguredRegistry(Closure body) {
         DeclarativeDockerUtils.DockerRegistry registry = DeclarativeDockerUtils.DockerRegistry.build(describable.registryUrl, describable.registryCredentialsId)
         if (registry.hasData()) {
             script.getProperty("docker").withRegistry(registry.registry, registry.credential) {
-                runImage(body)
+                body.call()
             }
         } else {
-            runImage(body)
+            body.call()
+        }
+    }
+
+    /**
+     * Starts pulling the images of stage agents in the background on the node of the top level agent.
+     */
+    protected void prefetchImages() {
+        if (describable.prefetchImages && !Utils.withinAStage()) {
+            List<String> images = []
+            for (String image : DeclarativeDockerUtils.getStageImages(describable)) {
+                images.add(script.getProperty("docker").image(image).imageName())
+            }
+            if (!images.isEmpty()) {
+                script.dockerPrefetch(images: images, toolName: script.env.DOCKER_TOOL_NAME)
+            }
         }
     }
 
@@ -52,7 +52,7 @@ class DockerPipelineFromDockerfileScript extends AbstractDockerPipelineScript<Do
             img = buildImage()
         }
         if (img != null) {
-            img.inside(describable.args, body)
+            img.inside([args: describable.args, caches: describable.caches], body)
         }
     }
 
@@ -50,6 +50,6 @@ class DockerPipelineScript extends AbstractDockerPipelineScript<DockerPipeline>
         if (Utils.withinAStage() && describable.alwaysPull) {
             script.getProperty("docker").image(describable.image).pull()
         }
-        script.getProperty("docker").image(describable.image).inside(describable.args, body)
+        script.getProperty("docker").image(describable.image).inside([args: describable.args, caches: describable.caches], body)
     }
 }
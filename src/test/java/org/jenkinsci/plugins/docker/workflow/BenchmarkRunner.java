@@ -0,0 +1,31 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all {@code *Benchmark} classes of this plugin.
+ * Only selected by the {@code benchmark} profile: {@code mvn test -Dbenchmark}.
+ * Results are written to {@code target/jmh-report.json}, which can be compared between builds.
+ */
+public class BenchmarkRunner {
+
+    @Test public void runJmhBenchmarks() throws Exception {
+        new Runner(new OptionsBuilder()
+            .include("org\\.jenkinsci\\.plugins\\.docker\\.workflow\\..*Benchmark")
+            .mode(Mode.AverageTime)
+            .timeUnit(TimeUnit.NANOSECONDS)
+            .warmupIterations(3)
+            .measurementIterations(5)
+            .forks(1)
+            .shouldFailOnError(true)
+            .resultFormat(ResultFormatType.JSON)
+            .result("target/jmh-report.json")
+            .build()).run();
+    }
+
+}
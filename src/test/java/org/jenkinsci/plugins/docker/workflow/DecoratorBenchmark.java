@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.VersionNumber;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of rewriting a launch into {@code docker exec}, which happens for every process started inside {@code withDockerContainer}.
+ */
+@State(Scope.Benchmark)
+public class DecoratorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int envSize;
+
+    private Launcher launcher;
+    private String[] env;
+
+    @Setup public void setUp() {
+        EnvVars envHost = new EnvVars();
+        EnvVars envBuild = new EnvVars();
+        for (int i = 0; i < envSize; i++) {
+            envHost.put("HOST_VAR_" + i, "value" + i);
+            envBuild.put("HOST_VAR_" + i, "value" + i);
+            if (i % 10 == 0) {
+                envBuild.put("BUILD_VAR_" + i, "value" + i);
+            }
+        }
+        envBuild.put("PATH", "/usr/bin:/bin");
+        env = envBuild.toCommandArray();
+        Launcher inner = new Launcher.LocalLauncher(TaskListener.NULL) {
+            @Override public Proc launch(ProcStarter starter) throws IOException {
+                return null; // only the rewriting is measured
+            }
+        };
+        // A null tool name resolves to plain docker without consulting the node.
+        launcher = new WithContainerStep.Decorator("0123456789ab", envHost, "/ws", null, new VersionNumber("20.10.0"), null).decorate(inner, null);
+    }
+
+    @Benchmark public void launch(Blackhole bh) throws IOException {
+        Launcher.ProcStarter starter = launcher.launch().cmds("sh", "-c", "true").envs(env).pwd("/ws/sub");
+        starter.start();
+        bh.consume(starter.cmds());
+    }
+
+}
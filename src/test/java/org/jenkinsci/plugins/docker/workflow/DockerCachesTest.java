@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jenkinsci.plugins.docker.workflow.declarative.DockerPipeline;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class DockerCachesTest {
+
+    @Test public void parse() {
+        assertTrue(DockerCaches.parse(null).isEmpty());
+        assertTrue(DockerCaches.parse("  ").isEmpty());
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("maven", "/root/.m2");
+        expected.put("npm", "C:\\Users\\me\\npm-cache");
+        assertEquals(expected, DockerCaches.parse(" maven:/root/.m2\n npm:C:\\Users\\me\\npm-cache "));
+        assertThrows(IllegalArgumentException.class, () -> DockerCaches.parse("/root/.m2"));
+        assertThrows(IllegalArgumentException.class, () -> DockerCaches.parse("maven:"));
+        assertThrows(IllegalArgumentException.class, () -> DockerCaches.parse("../x:/root/.m2"));
+    }
+
+    @Test public void format() {
+        assertNull(DockerCaches.format(null));
+        assertEquals("maven:/root/.m2", DockerCaches.format("maven:/root/.m2"));
+        Map<String, String> caches = new LinkedHashMap<>();
+        caches.put("maven", "/root/.m2");
+        caches.put("npm", "/root/.npm");
+        assertEquals("maven:/root/.m2 npm:/root/.npm", DockerCaches.format(caches));
+        assertEquals(caches, DockerCaches.parse(DockerCaches.format(caches)));
+        DockerPipeline agent = new DockerPipeline("maven");
+        agent.setCaches(caches);
+        assertEquals("maven:/root/.m2 npm:/root/.npm", agent.getCaches());
+        agent.setCaches("");
+        assertNull(agent.getCaches());
+    }
+
+    @Test public void volume() {
+        assertEquals("jenkins-cache-maven", DockerCaches.volume("maven", null, null));
+        assertEquals("jenkins-cache-maven-my-agent-2", DockerCaches.volume("maven", "my agent", "2"));
+    }
+
+    @Test public void lease() {
+        DockerCaches.Lease first = new DockerCaches.Lease("lease");
+        assertEquals("jenkins-cache-maven-agent-0", first.add("maven", "agent", "0"));
+        DockerCaches.Lease second = new DockerCaches.Lease("lease");
+        assertEquals("jenkins-cache-maven-agent-0.2", second.add("maven", "agent", "0"));
+        assertEquals("jenkins-cache-maven-agent-1", second.add("maven", "agent", "1"));
+        assertEquals("jenkins-cache-maven-agent-0", new DockerCaches.Lease("elsewhere").add("maven", "agent", "0"));
+        first.release();
+        DockerCaches.Lease third = new DockerCaches.Lease("lease");
+        assertEquals("jenkins-cache-maven-agent-0", third.add("maven", "agent", "0"));
+        second.release();
+        third.release();
+    }
+
+    @Test public void evictable() {
+        DockerCaches.Lease old = new DockerCaches.Lease("evict");
+        old.add("old", null, null);
+        old.release();
+        DockerCaches.Lease recent = new DockerCaches.Lease("evict");
+        recent.add("recent", null, null);
+        recent.release();
+        DockerCaches.Lease mounted = new DockerCaches.Lease("evict");
+        mounted.add("mounted", null, null);
+        // Volumes not used since startup go first, then the least recently used; mounted ones stay.
+        assertEquals(Arrays.asList("jenkins-cache-unknown", "jenkins-cache-old"),
+            DockerCaches.evictable("evict", Arrays.asList("jenkins-cache-mounted", "jenkins-cache-recent", "jenkins-cache-old", "jenkins-cache-unknown"), 2));
+        assertEquals(Collections.emptyList(), DockerCaches.evictable("evict", Arrays.asList("jenkins-cache-mounted", "jenkins-cache-recent"), 2));
+        mounted.release();
+    }
+
+}
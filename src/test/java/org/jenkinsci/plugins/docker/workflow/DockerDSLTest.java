@@ -39,6 +39,7 @@ import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runners.model.Statement;
 import org.jvnet.hudson.test.BuildWatcher;
 import org.jvnet.hudson.test.Issue;
@@ -50,23 +51,29 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.core.IsNot.not;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.hamcrest.core.StringRegularExpression.matchesRegex;
 import static org.jenkinsci.plugins.docker.workflow.DockerTestUtil.assumeDocker;
 import static org.jenkinsci.plugins.docker.workflow.DockerTestUtil.assumeNotWindows;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assume.assumeTrue;
 
 public class DockerDSLTest {
 
     @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
     @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
 
     @Test public void firstDoNoHarm() {
         story.addStep(new Statement() {
@@ -138,6 +145,7 @@ public class DockerDSLTest {
                 WorkflowRun b = p.getLastBuild();
                 story.j.assertLogContains("Require method GET POST OPTIONS", story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b)));
                 story.j.assertLogContains("the answer is 42", b);
+                assertThat(timeline(b), hasItems("probe", "run", "body", "rm"));
             }
         });
     }
@@ -229,6 +237,145 @@ public class DockerDSLTest {
                 WorkflowRun b = p.getLastBuild();
                 story.j.assertLogContains("Require method GET POST OPTIONS", story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b)));
                 story.j.assertLogContains("the answer is 42", b);
+                assertThat(timeline(b), contains("run", "body", "stop"));
+            }
+        });
+    }
+
+    @Test public void withRuns() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeDocker();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "def ids = docker.withRuns([[image: 'httpd:2.4.62', port: 80], [image: 'busybox', command: 'sleep 600']]) {cs ->\n" +
+                    "  sh \"docker exec ${cs[0].id} cat /usr/local/apache2/conf/extra/httpd-userdir.conf\"\n" +
+                    "  cs.collect {it.id}\n" +
+                    "}\n" +
+                    "node {\n" +
+                    "  for (def id : ids) {\n" +
+                    "    sh \"docker inspect ${id} || echo ${id} removed\"\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                story.j.assertLogContains("Require method GET POST OPTIONS", b);
+                story.j.assertLogContains("is ready", b);
+                story.j.assertLogContains(" removed", b);
+                story.j.assertLogNotContains("Could not remove network", b);
+                List<String> phases = timeline(b);
+                assertThat(phases, hasItems("run", "ready", "body", "stop"));
+                assertEquals(2, Collections.frequency(phases, "stop"));
+            }
+        });
+    }
+
+    @Test public void withNetwork() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeDocker();
+                assumeNotWindows();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  def net = docker.withNetwork {\n" +
+                    "    docker.withRuns([[image: 'httpd:2.4.62', port: 80]]) {\n" +
+                    "      docker.image('busybox').inside {\n" +
+                    "        sh 'wget -qO- http://httpd/'\n" +
+                    "      }\n" +
+                    "    }\n" +
+                    "    env.DOCKER_NETWORK\n" +
+                    "  }\n" +
+                    "  sh \"docker network inspect ${net} || echo ${net} removed\"\n" +
+                    "}", true));
+                WorkflowRun b = story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                story.j.assertLogContains("It works!", b);
+                story.j.assertLogContains(" removed", b);
+            }
+        });
+    }
+
+    @Test public void lazyPull() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                docker.storageDriver("stargz");
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  docker.withTool('" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    docker.image('missing/toolchain').inside(lazyPull: true) {\n" +
+                    "      sh 'echo inside'\n" +
+                    "    }\n" +
+                    "  }\n" +
+                    "}", true));
+                // Not known yet, so pulled as usual, and found out by withDockerContainer without another durable task.
+                WorkflowRun b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogNotContains("without pulling it in full first", b);
+                story.j.assertLogContains("Docker uses the stargz snapshotter", b);
+                story.j.assertLogContains("inside", b);
+                assertEquals(1, docker.calls().stream().filter(c -> c.equals("pull missing/toolchain")).count());
+                assertEquals(1, docker.calls().stream().filter(c -> c.startsWith("info ") && c.contains("Driver")).count());
+                assertThat(timeline(b), hasItems("run", "first-step"));
+                b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("Starting missing/toolchain without pulling it in full first", b);
+                assertEquals(1, docker.calls().stream().filter(c -> c.equals("pull missing/toolchain")).count());
+                docker.storageDriver("overlay2");
+                b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("which does not pull lazily", b);
+                b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogNotContains("without pulling it in full first", b);
+                assertEquals(2, docker.calls().stream().filter(c -> c.equals("pull missing/toolchain")).count());
+            }
+        });
+    }
+
+    private static List<String> timeline(WorkflowRun b) {
+        List<String> phases = new ArrayList<>();
+        for (DockerTimelineAction.Phase phase : b.getAction(DockerTimelineAction.class).getPhases()) {
+            phases.add(phase.getPhase());
+        }
+        return phases;
+    }
+
+    @Test public void insideNullArgs() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeNotWindows();
+                FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  docker.withTool('" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    docker.image('fake/plain').inside(null) {\n" +
+                    "      sh 'echo inside'\n" +
+                    "    }\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.assertLogContains("inside", story.j.buildAndAssertSuccess(p));
+            }
+        });
+    }
+
+    @Test public void withRunLabels() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  docker.withTool('" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    docker.image('fake/sidecar').withRun('-e X=y') {c -> echo \"sidecar ${c.id}\"}\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.buildAndAssertSuccess(p);
+                String run = docker.calls().stream().filter(c -> c.startsWith("run -d ")).findFirst().orElse(null);
+                assertNotNull(docker.calls().toString(), run);
+                assertThat(run, containsString("--label " + OrphanedContainerCollector.LABEL_JOB + "=prj"));
+                assertThat(run, containsString("--label " + OrphanedContainerCollector.LABEL_BUILD + "=1"));
+                assertThat(run, containsString("--label " + OrphanedContainerCollector.LABEL_INSTANCE + "=" + story.j.jenkins.getLegacyInstanceId()));
+                assertThat(run, containsString("-e X=y fake/sidecar"));
             }
         });
     }
@@ -455,4 +602,25 @@ public class DockerDSLTest {
             }
         });
     }
+
+    @Test public void ports() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assumeDocker();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  docker.image('httpd:2.4.62').withRun('-p 12345:80 -p 12346:443') { c ->\n" +
+                    "    echo \"http on ${c.port(80)}, https on ${c.port(443)}, all ${c.ports().keySet()}\"\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun r = story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                story.j.assertLogContains("http on 0.0.0.0:12345", r);
+                story.j.assertLogContains("https on 0.0.0.0:12346", r);
+                story.j.assertLogContains("all [443/tcp, 80/tcp]", r);
+                assertEquals(Integer.valueOf(1), r.getAction(DockerCommandsAction.class).getCommands().stream()
+                    .filter(e -> e.getKey().equals("port")).map(e -> (int) e.getValue().getCount()).findFirst().orElse(0));
+            }
+        });
+    }
 }
@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class DockerNetworksTest {
+
+    @Test public void args() {
+        assertNull(DockerNetworks.args(null, null, "httpd"));
+        assertEquals("-p 80", DockerNetworks.args("-p 80", "", "httpd"));
+        assertEquals("--network net", DockerNetworks.args(null, "net", null));
+        assertEquals("--network net --network-alias httpd -p 80", DockerNetworks.args("-p 80", "net", "httpd"));
+        assertEquals("--network net --network-alias web", DockerNetworks.args("--network net --network-alias web", "net", "httpd"));
+        assertEquals("--net=host", DockerNetworks.args("--net=host", "net", "httpd"));
+        assertEquals("--network net --network-alias=web", DockerNetworks.args("--network-alias=web", "net", "httpd"));
+        assertEquals("--network net --network-alias httpd --label network=x", DockerNetworks.args("--label network=x", "net", "httpd"));
+    }
+
+    @Test public void alias() {
+        assertEquals("busybox", DockerNetworks.alias("busybox"));
+        assertEquals("postgres", DockerNetworks.alias("library/postgres:16"));
+        assertEquals("app", DockerNetworks.alias("registry.example.com:5000/team/app:1.0"));
+        assertEquals("app", DockerNetworks.alias("team/app@sha256:0123abcd"));
+    }
+
+    @Test public void name() {
+        String name = DockerNetworks.name("jenkins-folder/my job-12");
+        assertTrue(name, name.matches("jenkins-folder-my-job-12-[0-9a-f]{8}"));
+        assertTrue(DockerNetworks.name(null).startsWith("jenkins-"));
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of reading a {@code Dockerfile} and of parsing {@code docker build} arguments, done for every {@code docker.build}.
+ */
+@State(Scope.Benchmark)
+public class DockerfileBenchmark {
+
+    private File file;
+    private Dockerfile dockerfile;
+
+    @Setup public void setUp() throws Exception {
+        file = File.createTempFile("Dockerfile", null);
+        StringBuilder content = new StringBuilder("ARG REGISTRY=docker.io\nARG BASE_TAG=3.20\nFROM $REGISTRY/alpine:$BASE_TAG AS build\n");
+        for (int i = 0; i < 50; i++) {
+            content.append("RUN echo step ").append(i).append(" && true\n");
+        }
+        content.append("FROM scratch\nCOPY --from=build /etc/os-release /\n");
+        Files.writeString(file.toPath(), content, StandardCharsets.ISO_8859_1);
+        dockerfile = new Dockerfile(new FilePath(file));
+    }
+
+    @TearDown public void tearDown() throws IOException {
+        Files.delete(file.toPath());
+    }
+
+    @Benchmark public Dockerfile parse() throws Exception {
+        return new Dockerfile(new FilePath(file));
+    }
+
+    @Benchmark public Map<String, String> parseBuildArgs() {
+        return DockerUtils.parseBuildArgs(dockerfile, "--pull --build-arg BASE_TAG=3.19 --build-arg \"LABEL=some value\" -f sub/Dockerfile --build-arg REGISTRY=mirror.example.com .");
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import hudson.tools.ToolProperty;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.docker.commons.tools.DockerTool;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * A stand-in for the {@code docker} CLI, registered as the {@link DockerTool} installation {@link #TOOL_NAME}.
+ * It records every invocation and can sleep before answering to simulate a slow daemon.
+ * {@code run} only prints a container ID, and {@code exec} runs the command directly on the host,
+ * so {@code withDockerContainer} blocks work without Docker, on Unix.
+ * Images named {@code missing/…} are reported as not present locally, and those whose name contains {@code unpullable} cannot be pulled.
+ */
+final class FakeDockerCLI {
+
+    static final String TOOL_NAME = "fake";
+
+    private final File log;
+    private final Map<String, Integer> daemons = new TreeMap<>();
+
+    private FakeDockerCLI(File log) {
+        this.log = log;
+    }
+
+    /**
+     * @param dir a fresh directory to install into
+     * @param latency milliseconds to wait in each invocation
+     */
+    static FakeDockerCLI install(JenkinsRule r, File dir, long latency) throws IOException {
+        File log = new File(dir, "calls.log");
+        File bin = new File(dir, "bin");
+        File docker = new File(bin, "docker");
+        String script;
+        try (InputStream is = FakeDockerCLI.class.getResourceAsStream("FakeDockerCLI/docker")) {
+            script = IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+        script = script.replace("@LOG@", log.getAbsolutePath()).replace("@LATENCY@", latency == 0 ? "0" : String.format("%d.%03d", latency / 1000, latency % 1000));
+        Files.createDirectories(bin.toPath());
+        Files.writeString(docker.toPath(), script);
+        if (!docker.setExecutable(true)) {
+            throw new IOException("could not make " + docker + " executable");
+        }
+        r.jenkins.getDescriptorByType(DockerTool.DescriptorImpl.class).setInstallations(new DockerTool(TOOL_NAME, dir.getAbsolutePath(), Collections.<ToolProperty<?>>emptyList()));
+        return new FakeDockerCLI(log);
+    }
+
+    /**
+     * Makes {@code info} answer for a {@code DOCKER_HOST}, or stop answering.
+     * @param running the number of running containers to report, or null to simulate an unreachable daemon
+     */
+    void daemon(String uri, Integer running) throws IOException {
+        daemons.remove(uri);
+        if (running != null) {
+            daemons.put(uri, running);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : daemons.entrySet()) {
+            lines.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        Files.writeString(new File(log.getPath() + ".daemons").toPath(), lines);
+    }
+
+    /**
+     * Sets the storage driver reported by {@code info}, {@code overlay2} by default.
+     */
+    void storageDriver(String driver) throws IOException {
+        Files.writeString(new File(log.getPath() + ".driver").toPath(), driver + "\n");
+    }
+
+    /**
+     * Keeps {@code run} from starting the command server of {@link ContainerExecAgent}, as if its pipe did not work from the container.
+     */
+    void breakExecAgent() throws IOException {
+        Files.writeString(new File(log.getPath() + ".no-exec-server").toPath(), "");
+    }
+
+    /**
+     * Makes {@code inspect} report all containers as no longer running.
+     */
+    void stopContainers() throws IOException {
+        Files.writeString(new File(log.getPath() + ".stopped").toPath(), "");
+    }
+
+    /**
+     * Makes {@code inspect} fail to tell whether containers are running, as if the daemon could not be reached.
+     */
+    void unreachable() throws IOException {
+        Files.writeString(new File(log.getPath() + ".unreachable").toPath(), "");
+    }
+
+    /**
+     * @return the arguments of each invocation so far, in order
+     */
+    List<String> calls() throws IOException {
+        if (!log.exists()) {
+            return Collections.emptyList();
+        }
+        return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of invocations so far, by subcommand
+     */
+    Map<String, Integer> counts() throws IOException {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String call : calls()) {
+            counts.merge(call.split(" ", 2)[0], 1, Integer::sum);
+        }
+        return counts;
+    }
+
+}
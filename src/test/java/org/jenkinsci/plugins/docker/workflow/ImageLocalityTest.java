@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ImageLocalityTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @After public void clear() {
+        ImageLocality.clear();
+    }
+
+    @Test public void canonical() {
+        assertEquals("docker.io/library/maven:latest", ImageLocality.canonical("maven"));
+        assertEquals("docker.io/library/maven:3", ImageLocality.canonical("maven:3"));
+        assertEquals("docker.io/library/maven:3", ImageLocality.canonical("library/maven:3"));
+        assertEquals("docker.io/library/maven:3", ImageLocality.canonical("index.docker.io/library/maven:3"));
+        assertEquals("docker.io/bitnami/maven:3", ImageLocality.canonical("bitnami/maven:3"));
+        assertEquals("registry.example.com:5000/maven:latest", ImageLocality.canonical("registry.example.com:5000/maven"));
+        assertEquals("localhost/team/app:1", ImageLocality.canonical("localhost/team/app:1"));
+        assertEquals("docker.io/library/maven@sha256:abc", ImageLocality.canonical("maven@sha256:abc"));
+    }
+
+    @Test public void preferredLabel() throws Exception {
+        DumbSlave cold = j.createOnlineSlave(Label.get("docker"));
+        DumbSlave warm = j.createOnlineSlave(Label.get("docker"));
+        assertEquals("docker", ImageLocality.preferredLabel("docker", "maven:3-locality"));
+        ImageLocality.record(cold, "bitnami/maven:3-locality");
+        ImageLocality.record(cold, "registry.example.com/maven:3-locality");
+        assertEquals("docker", ImageLocality.preferredLabel("docker", "maven:3-locality"));
+        assertEquals("(docker) && (" + cold.getNodeName() + ")", ImageLocality.preferredLabel("docker", "registry.example.com/maven:3-locality"));
+        ImageLocality.record(warm, "docker.io/library/maven:3-locality");
+        assertEquals("(docker) && (" + warm.getNodeName() + ")", ImageLocality.preferredLabel("docker", "maven:3-locality"));
+        assertEquals(warm.getNodeName(), ImageLocality.preferredLabel(null, "maven:3-locality"));
+        assertEquals("linux", ImageLocality.preferredLabel("linux", "maven:3-locality"));
+        assertNull(ImageLocality.preferredLabel(null, "gradle:8-locality"));
+        ImageLocality.record(cold, "maven:3-locality");
+        assertEquals("(docker) && (" + cold.getNodeName() + " || " + warm.getNodeName() + ")", ImageLocality.preferredLabel("docker", "maven:3-locality"));
+        warm.setMode(Node.Mode.EXCLUSIVE);
+        j.jenkins.updateNode(warm);
+        assertEquals(cold.getNodeName(), ImageLocality.preferredLabel(null, "maven:3-locality"));
+        cold.toComputer().disconnect(null).get();
+        assertEquals("(docker) && (" + warm.getNodeName() + ")", ImageLocality.preferredLabel("docker", "maven:3-locality"));
+    }
+
+}
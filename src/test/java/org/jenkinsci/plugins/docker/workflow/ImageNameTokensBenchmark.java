@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of splitting an image name into repository, tag and digest, done for every {@code docker.image}.
+ */
+@State(Scope.Benchmark)
+public class ImageNameTokensBenchmark {
+
+    @Param({"httpd", "library/httpd:2.4.59", "registry.example.com:5000/team/app:1.0", "ubuntu@sha256:c0c0fd6fea5f6b1e5b3f3d0d9b4ddd6d8b0e8d9f0b1c2d3e4f5a6b7c8d9e0f1a"})
+    public String name;
+
+    @Benchmark public ImageNameTokens parse() {
+        return new ImageNameTokens(name);
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.jenkinsci.plugins.docker.workflow.DockerTestUtil.assumeNotWindows;
+
+public class PrefetchStepTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void failedPullInBuildLog() throws Exception {
+        assumeNotWindows();
+        FakeDockerCLI.install(r, tmp.newFolder(), 0);
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "prj");
+        p.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  dockerPrefetch images: ['missing/unpullable', 'missing/fine'], toolName: '" + FakeDockerCLI.TOOL_NAME + "'\n" +
+            "  semaphore 'wait'\n" +
+            "}", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        SemaphoreStep.waitForStart("wait/1", b);
+        r.waitForMessage("Background pull of missing/unpullable failed with exit code 1", b);
+        SemaphoreStep.success("wait/1", null);
+        r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        r.assertLogNotContains("Background pull of missing/fine failed", b);
+    }
+
+}
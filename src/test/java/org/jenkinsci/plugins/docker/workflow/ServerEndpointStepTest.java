@@ -33,6 +33,7 @@ import java.util.TreeMap;
 
 import hudson.model.Computer;
 import hudson.model.Item;
+import hudson.model.Result;
 import hudson.model.User;
 import jenkins.model.Jenkins;
 import jenkins.security.QueueItemAuthenticatorConfiguration;
@@ -50,6 +51,7 @@ import static org.jenkinsci.plugins.docker.workflow.DockerTestUtil.assumeNotWind
 import static org.junit.Assert.*;
 import org.junit.ClassRule;
 import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runners.model.Statement;
 import org.jvnet.hudson.test.BuildWatcher;
 import org.jvnet.hudson.test.MockAuthorizationStrategy;
@@ -60,6 +62,7 @@ public class ServerEndpointStepTest {
 
     @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
     @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
 
     @Test public void configRoundTrip() {
         story.addStep(new Statement() {
@@ -182,4 +185,58 @@ public class ServerEndpointStepTest {
         });
     }
 
+    @Test public void pool() throws Exception {
+        assumeNotWindows();
+        story.then(r -> {
+            FakeDockerCLI docker = FakeDockerCLI.install(r, tmp.newFolder(), 0);
+            docker.daemon("tcp://a:2375", 5);
+            docker.daemon("tcp://b:2375", 1);
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "prj");
+            p.setDefinition(new CpsFlowDefinition(
+                "node {\n" +
+                "  withDockerServer(pool: ['tcp://a:2375', [uri: 'tcp://b:2375'], 'tcp://c:2375'], toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                "    sh 'echo connecting to $DOCKER_HOST'\n" +
+                "  }\n" +
+                "}", true));
+            WorkflowRun b = r.buildAndAssertSuccess(p);
+            r.assertLogContains("Docker server tcp://c:2375 did not respond", b);
+            r.assertLogContains("connecting to tcp://b:2375", b);
+            // Slightly busier than a, but used last time.
+            docker.daemon("tcp://a:2375", 2);
+            docker.daemon("tcp://b:2375", 3);
+            b = r.buildAndAssertSuccess(p);
+            r.assertLogContains("Skipping Docker server tcp://c:2375", b);
+            r.assertLogContains("connecting to tcp://b:2375", b);
+            // Gone, so fail over.
+            docker.daemon("tcp://b:2375", null);
+            b = r.buildAndAssertSuccess(p);
+            r.assertLogContains("connecting to tcp://a:2375", b);
+            docker.daemon("tcp://a:2375", null);
+            r.assertLogContains("None of the 3 Docker servers in the pool responded", r.buildAndAssertStatus(Result.FAILURE, p));
+        });
+    }
+
+    @Test public void proxyFallsBack() throws Exception {
+        assumeNotWindows();
+        story.then(r -> {
+            IdCredentials serverCredentials = new DockerServerCredentials(CredentialsScope.GLOBAL, "serverCreds", null, "clientKey", "clientCertificate", "serverCaCertificate");
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), serverCredentials);
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "prj");
+            p.setDefinition(new CpsFlowDefinition(
+                "node {\n" +
+                "  withDockerServer(server: [uri: 'tcp://host:1234'], proxy: true) {\n" +
+                "    sh 'echo plain $DOCKER_HOST'\n" +
+                "  }\n" +
+                "  withDockerServer(server: [uri: 'tcp://host:1234', credentialsId: 'serverCreds'], proxy: true) {\n" +
+                "    sh 'echo bad credentials $DOCKER_HOST DOCKER_TLS_VERIFY=$DOCKER_TLS_VERIFY'\n" +
+                "  }\n" +
+                "}", true));
+            WorkflowRun b = r.buildAndAssertSuccess(p);
+            r.assertLogContains("plain tcp://host:1234", b);
+            r.assertLogContains("Not proxying Docker server connections: only possible", b);
+            r.assertLogContains("Not proxying Docker server connections: could not load the client certificate", b);
+            r.assertLogContains("bad credentials tcp://host:1234 DOCKER_TLS_VERIFY=1", b);
+        });
+    }
+
 }
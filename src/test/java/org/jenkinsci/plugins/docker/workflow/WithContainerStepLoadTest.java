@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepEndNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Runs concurrent {@code withDockerContainer} builds against {@link FakeDockerCLI} and reports how long steps take
+ * and how many {@code docker} processes were forked, to measure plugin overhead without a Docker daemon.
+ * Scale it up with the system properties {@code WithContainerStepLoadTest.builds}, {@code .steps} and {@code .latency} (milliseconds per {@code docker} call).
+ */
+public class WithContainerStepLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(WithContainerStepLoadTest.class.getName());
+
+    private static final int BUILDS = Integer.getInteger(WithContainerStepLoadTest.class.getName() + ".builds", 4);
+    private static final int STEPS = Integer.getInteger(WithContainerStepLoadTest.class.getName() + ".steps", 5);
+    private static final long LATENCY = Long.getLong(WithContainerStepLoadTest.class.getName() + ".latency", 0);
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void concurrentBuilds() throws Exception {
+        DockerTestUtil.assumeNotWindows();
+        FakeDockerCLI docker = FakeDockerCLI.install(j, tmp.newFolder(), LATENCY);
+        j.jenkins.setNumExecutors(BUILDS);
+        List<WorkflowRun> builds = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p" + i);
+            p.setDefinition(new CpsFlowDefinition(
+                "node {\n" +
+                "  withDockerContainer(image: 'fake/image', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                "    for (int i = 0; i < " + STEPS + "; i++) {\n" +
+                "      sh 'true'\n" +
+                "    }\n" +
+                "  }\n" +
+                "}", true));
+            builds.add(p.scheduleBuild2(0).waitForStart());
+        }
+        List<Long> sh = new ArrayList<>();
+        List<Long> blocks = new ArrayList<>();
+        for (WorkflowRun b : builds) {
+            j.assertBuildStatusSuccess(j.waitForCompletion(b));
+            collectDurations(b, sh, blocks);
+        }
+        Map<String, Integer> counts = docker.counts();
+        LOGGER.log(Level.INFO, "sh inside container (ms): {0}", percentiles(sh));
+        LOGGER.log(Level.INFO, "withDockerContainer block (ms): {0}", percentiles(blocks));
+        LOGGER.log(Level.INFO, "docker invocations: {0}", counts);
+        assertEquals(BUILDS * STEPS, sh.size());
+        assertEquals(Integer.valueOf(BUILDS), counts.get("run"));
+        assertTrue(counts.getOrDefault("top", 0) <= BUILDS); // cached once an image has passed
+        assertTrue(counts.get("exec") >= BUILDS * STEPS);
+    }
+
+    private static void collectDurations(WorkflowRun b, List<Long> sh, List<Long> blocks) {
+        List<FlowNode> nodes = new DepthFirstScanner().allNodes(b.getExecution());
+        Map<FlowNode, Long> next = new HashMap<>();
+        for (FlowNode node : nodes) {
+            for (FlowNode parent : node.getParents()) {
+                next.merge(parent, TimingAction.getStartTime(node), Math::min);
+            }
+        }
+        for (FlowNode node : nodes) {
+            if (node instanceof StepAtomNode && "sh".equals(functionName(((StepAtomNode) node).getDescriptor())) && next.containsKey(node)) {
+                sh.add(next.get(node) - TimingAction.getStartTime(node));
+            } else if (node instanceof StepEndNode) {
+                StepStartNode start = ((StepEndNode) node).getStartNode();
+                if (!start.isBody() && "withDockerContainer".equals(functionName(start.getDescriptor()))) {
+                    blocks.add(TimingAction.getStartTime(node) - TimingAction.getStartTime(start));
+                }
+            }
+        }
+    }
+
+    private static String functionName(StepDescriptor d) {
+        return d != null ? d.getFunctionName() : null;
+    }
+
+    private static String percentiles(List<Long> samples) {
+        if (samples.isEmpty()) {
+            return "no samples";
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return String.format("n=%d p50=%d p90=%d p99=%d max=%d", sorted.size(), percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, int p) {
+        return sorted.get(Math.max(0, (int) Math.ceil(p / 100.0 * sorted.size()) - 1));
+    }
+
+}
@@ -28,6 +28,8 @@ import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.SecretBytes;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import com.google.common.collect.ImmutableSet;
+import hudson.EnvVars;
+import hudson.ExtensionList;
 import hudson.Launcher;
 import hudson.model.FileParameterValue;
 import hudson.model.Result;
@@ -40,6 +42,7 @@ import hudson.util.StreamTaskListener;
 import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 
 import hudson.util.VersionNumber;
@@ -47,10 +50,16 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.io.FileUtils;
 import org.hamcrest.Matchers;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
@@ -70,6 +79,11 @@ import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
 import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
 import org.junit.Assume;
 import static org.junit.Assume.assumeTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.ClassRule;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -78,6 +92,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.runners.model.Statement;
 import org.jvnet.hudson.test.BuildWatcher;
 import org.jvnet.hudson.test.Issue;
+import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.LoggerRule;
 import org.jvnet.hudson.test.RestartableJenkinsRule;
 import org.jvnet.hudson.test.SimpleCommandLauncher;
@@ -182,6 +197,356 @@ public class WithContainerStepTest {
         });
     }
 
+    @Test public void asyncStop() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeDocker();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer('httpd:2.4.59') {\n" +
+                    "    sh 'echo running in $HOSTNAME'\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                Matcher m = Pattern.compile("running in ([0-9a-f]{12})").matcher(JenkinsRule.getLog(b));
+                assertTrue(m.find());
+                DockerClient client = new DockerClient(new Launcher.LocalLauncher(StreamTaskListener.fromStderr()), null, null);
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+                while (client.inspect(DockerTestUtil.newDockerLaunchEnv(), m.group(1), ".Id") != null) {
+                    assertTrue("container " + m.group(1) + " was removed", System.currentTimeMillis() < deadline);
+                    Thread.sleep(100);
+                }
+            }
+        });
+    }
+
+    @Test public void commandCheckCached() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/cached', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    sh 'true'\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.buildAndAssertSuccess(p);
+                story.j.buildAndAssertSuccess(p);
+                assertEquals(Integer.valueOf(2), docker.counts().get("run"));
+                assertEquals(Integer.valueOf(1), docker.counts().get("top"));
+            }
+        });
+    }
+
+    @Test public void caches() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/cached', caches: 'm2:/root/.m2', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    sh 'true'\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.buildAndAssertSuccess(p);
+                story.j.buildAndAssertSuccess(p);
+                String volume = DockerCaches.volume("m2", "built-in", "0");
+                List<String> calls = docker.calls();
+                assertEquals(1, calls.stream().filter(c -> c.startsWith("volume create ") && c.endsWith(" " + volume)).count());
+                assertEquals(1, calls.stream().filter(c -> c.contains("--entrypoint chown -v " + volume + ":/cache fake/cached ")).count());
+                assertEquals(2, calls.stream().filter(c -> c.startsWith("run -t -d ") && c.contains(" -v " + volume + ":/root/.m2:rw ")).count());
+                // Parallel branches share the executor but must not share the cache.
+                WorkflowJob p2 = story.j.jenkins.createProject(WorkflowJob.class, "parallel");
+                p2.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  parallel a: {\n" +
+                    "    withDockerContainer(image: 'fake/cached', caches: 'm2:/root/.m2', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {semaphore 'a'}\n" +
+                    "  }, b: {\n" +
+                    "    withDockerContainer(image: 'fake/cached', caches: 'm2:/root/.m2', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {semaphore 'b'}\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = p2.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("a/1", b);
+                SemaphoreStep.waitForStart("b/1", b);
+                SemaphoreStep.success("a/1", null);
+                SemaphoreStep.success("b/1", null);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+                calls = docker.calls();
+                assertEquals(3, calls.stream().filter(c -> c.startsWith("run -t -d ") && c.contains(" -v " + volume + ":/root/.m2:rw ")).count());
+                assertEquals(1, calls.stream().filter(c -> c.startsWith("run -t -d ") && c.contains(" -v " + volume + ".2:/root/.m2:rw ")).count());
+            }
+        });
+    }
+
+    @Test public void tmpfs() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', args: '-e X=y', tmpfs: true, toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    sh 'true'\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.buildAndAssertSuccess(p);
+                assertEquals(1, docker.calls().stream().filter(c -> c.startsWith("run -t -d ") && c.contains(" --tmpfs /tmp:rw,exec,mode=1777 -e X=y ")).count());
+            }
+        });
+    }
+
+    @Test public void exec() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    def out = dockerExec script: 'echo hello', returnStdout: true\n" +
+                    "    echo \"got ${out.trim()}\"\n" +
+                    "    echo \"status ${dockerExec script: 'exit 3', returnStatus: true}\"\n" +
+                    "    echo \"decoded ${dockerExec script: 'printf \"caf\\\\303\\\\251\"', returnStdout: true, encoding: 'UTF-8'}\"\n" +
+                    "    dockerExec 'echo streamed'\n" +
+                    "    dockerExec 'exit 4'\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertStatus(Result.FAILURE, p);
+                story.j.assertLogContains("got hello", b);
+                story.j.assertLogContains("status 3", b);
+                story.j.assertLogContains("decoded caf\u00e9", b);
+                story.j.assertLogContains("streamed", b);
+                story.j.assertLogContains("script returned exit code 4", b);
+                List<String> execs = docker.calls().stream().filter(c -> c.startsWith("exec ") && c.contains(" sh -c ")).collect(Collectors.toList());
+                assertEquals(execs.toString(), 5, execs.size());
+                assertTrue(execs.toString(), execs.get(0).endsWith(" sh -c echo hello"));
+            }
+        });
+    }
+
+    @Test public void execAgent() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', execAgent: true, toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    withEnv(['X=it\\'s']) {\n" +
+                    "      sh 'echo \"durable $X\"'\n" +
+                    "    }\n" +
+                    "    echo \"status ${dockerExec script: 'pwd; exit 3', returnStatus: true}\"\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("durable it's", b);
+                story.j.assertLogContains(story.j.jenkins.getWorkspaceFor(p).getRemote(), b);
+                story.j.assertLogContains("status 3", b);
+                assertEquals(docker.calls().toString(), 0, docker.calls().stream().filter(c -> c.startsWith("exec ")).count());
+                assertEquals(1, docker.calls().stream().filter(c -> c.startsWith("run ") && c.contains(" jenkins-exec-server ")).count());
+            }
+        });
+    }
+
+    @Test public void claimsNameOrPort() {
+        assertTrue(WithContainerStep.claimsNameOrPort("--name x"));
+        assertTrue(WithContainerStep.claimsNameOrPort("-e A=b --name=x"));
+        assertTrue(WithContainerStep.claimsNameOrPort("-p 8080:8080"));
+        assertTrue(WithContainerStep.claimsNameOrPort("-p8080:8080"));
+        assertTrue(WithContainerStep.claimsNameOrPort("--publish 8080:8080"));
+        assertFalse(WithContainerStep.claimsNameOrPort("--publish-all"));
+        assertFalse(WithContainerStep.claimsNameOrPort("--privileged -e NAME=x"));
+        assertFalse(WithContainerStep.claimsNameOrPort(null));
+    }
+
+    @Test public void reaperKeepsOnlyClientSettings() {
+        assertEquals(Collections.singletonMap("DOCKER_HOST", "tcp://h:2376"), ContainerReaper.dockerEnv(new EnvVars("DOCKER_HOST", "tcp://h:2376", "DOCKER_PASSWORD", "s3cret", "PATH", "/bin")));
+    }
+
+    @Test public void sameNameTwice() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  docker.withTool('" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    docker.image('fake/image').inside('--name db-client') {\n" +
+                    "      sh 'echo first'\n" +
+                    "    }\n" +
+                    "    docker.image('fake/image').inside('--name db-client') {\n" +
+                    "      sh 'echo second'\n" +
+                    "    }\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("second", b);
+            }
+        });
+    }
+
+    @Test public void execAgentFallsBack() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                docker.breakExecAgent();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', execAgent: true, toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    sh 'echo through docker exec'\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("using docker exec", b);
+                story.j.assertLogContains("through docker exec", b);
+                assertEquals(2, docker.calls().stream().filter(c -> c.startsWith("run ")).count());
+                assertEquals(1, docker.calls().stream().filter(c -> c.startsWith("run ") && c.endsWith(" cat")).count());
+                assertTrue(docker.calls().toString(), docker.calls().stream().anyMatch(c -> c.startsWith("exec ")));
+            }
+        });
+    }
+
+    @Test public void relabel() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    sh 'true'\n" +
+                    "  }\n" +
+                    "}", true));
+                story.j.buildAndAssertSuccess(p);
+                story.j.jenkins.getGlobalNodeProperties().add(new DockerNodeProperty(DockerNodeProperty.Relabel.PRIVATE));
+                story.j.buildAndAssertSuccess(p);
+                story.j.jenkins.getGlobalNodeProperties().replace(new DockerNodeProperty(DockerNodeProperty.Relabel.ONCE));
+                story.j.buildAndAssertSuccess(p);
+                story.j.buildAndAssertSuccess(p);
+                // A new workspace directory has not been relabeled yet.
+                story.j.jenkins.getWorkspaceFor(p).deleteRecursive();
+                story.j.buildAndAssertSuccess(p);
+                // The fake daemon reports no SELinux support.
+                story.j.jenkins.getGlobalNodeProperties().replace(new DockerNodeProperty(DockerNodeProperty.Relabel.AUTO));
+                story.j.buildAndAssertSuccess(p);
+                story.j.buildAndAssertSuccess(p);
+                long ttl = WithContainerStep.SELINUX_CHECK_TTL;
+                WithContainerStep.SELINUX_CHECK_TTL = -1;
+                try {
+                    story.j.buildAndAssertSuccess(p);
+                } finally {
+                    WithContainerStep.SELINUX_CHECK_TTL = ttl;
+                }
+                List<String> runs = docker.calls().stream().filter(c -> c.startsWith("run -t -d ")).collect(Collectors.toList());
+                assertEquals(8, runs.size());
+                assertThat(runs.get(0), containsString(":rw,z "));
+                assertThat(runs.get(1), containsString(":rw,Z "));
+                assertThat(runs.get(2), containsString(":rw,z "));
+                assertThat(runs.get(3), not(containsString(":rw,")));
+                assertThat(runs.get(4), containsString(":rw,z "));
+                assertThat(runs.get(5), not(containsString(":rw,")));
+                assertThat(runs.get(6), not(containsString(":rw,")));
+                assertThat(runs.get(7), not(containsString(":rw,")));
+                // remembered per daemon until it expires
+                int infos = docker.counts().getOrDefault("info", 0);
+                assertTrue(String.valueOf(infos), infos >= 1 && infos <= 2);
+            }
+        });
+    }
+
+    @Test public void overlay() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeDocker();
+                DockerTestUtil.assumeNotWindows();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  writeFile file: 'shared', text: 'original'\n" +
+                    "  parallel a: {\n" +
+                    "    withDockerContainer(image: 'busybox', overlay: 'discard') {sh 'echo a > shared; touch a'}\n" +
+                    "  }, b: {\n" +
+                    "    withDockerContainer(image: 'busybox', overlay: 'merge') {sh 'sleep 1; test \"$(cat shared)\" = original; rm shared; touch b'}\n" +
+                    "  }\n" +
+                    "  echo \"a=${fileExists 'a'} b=${fileExists 'b'} shared=${fileExists 'shared'}\"\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertSuccess(p);
+                story.j.assertLogContains("a=false b=true shared=false", b);
+                assertThat(story.j.jenkins.getWorkspaceFor(p).sibling("prj@overlay").listDirectories(), Matchers.empty());
+            }
+        });
+    }
+
+    @Test public void overlayClosedWhenRunFails() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                Assume.assumeFalse("overlay needs the workspace on the Docker host",
+                    new DockerClient(new Launcher.LocalLauncher(StreamTaskListener.NULL), null, null).getContainerIdIfContainerized().isPresent());
+                FakeDockerCLI docker = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                // Left behind by an earlier build which never closed it, and without a volume any more.
+                story.j.jenkins.getWorkspaceFor(p).sibling("prj@overlay").child("deadbeef/upper").mkdirs();
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', args: '--name db', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    withDockerContainer(image: 'fake/image', args: '--name db', overlay: 'merge', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {}\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = story.j.buildAndAssertStatus(Result.FAILURE, p);
+                story.j.assertLogContains("is already in use", b);
+                story.j.assertLogContains("Discarded 1 overlays of", b);
+                List<String> volumes = docker.calls().stream().filter(c -> c.startsWith("volume create ") && c.contains("type=overlay")).collect(Collectors.toList());
+                assertEquals(1, volumes.size());
+                String volume = volumes.get(0).substring(volumes.get(0).lastIndexOf(' ') + 1);
+                assertTrue(docker.calls().toString(), docker.calls().contains("volume rm " + volume));
+                assertThat(story.j.jenkins.getWorkspaceFor(p).sibling("prj@overlay").listDirectories().stream()
+                    .filter(d -> !d.getName().startsWith(".")).collect(Collectors.toList()), Matchers.empty());
+            }
+        });
+    }
+
+    @Test public void orphanedContainers() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeDocker();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition("semaphore 'wait'", true));
+                WorkflowRun running = p.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("wait/1", running);
+                p.setDefinition(new CpsFlowDefinition("", true));
+                WorkflowRun finished = story.j.buildAndAssertSuccess(p);
+                DockerClient client = new DockerClient(new Launcher.LocalLauncher(StreamTaskListener.fromStderr()), null, null);
+                EnvVars env = DockerTestUtil.newDockerLaunchEnv();
+                String orphan = client.run(env, "httpd:2.4.59", null, null, Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new EnvVars(),
+                    OrphanedContainerCollector.labels(finished), client.whoAmI(), "cat");
+                String live = client.run(env, "httpd:2.4.59", null, null, Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new EnvVars(),
+                    OrphanedContainerCollector.labels(running), client.whoAmI(), "cat");
+                try {
+                    ExtensionList.lookupSingleton(OrphanedContainerCollector.class).execute(StreamTaskListener.fromStderr());
+                    assertNull(client.inspect(env, orphan, ".Id"));
+                    assertNotNull(client.inspect(env, live, ".Id"));
+                } finally {
+                    client.rm(env, live);
+                }
+                SemaphoreStep.success("wait/1", null);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(running));
+            }
+        });
+    }
+
     @Test public void death() {
         story.addStep(new Statement() {
             @Override public void evaluate() throws Throwable {
@@ -234,6 +599,69 @@ public class WithContainerStepTest {
         });
     }
 
+    @Test public void deadAfterRestart() {
+        FakeDockerCLI[] docker = new FakeDockerCLI[1];
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                docker[0] = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                story.j.jenkins.getDescriptorByType(DockerTool.DescriptorImpl.class).save(); // needed after the restart
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    semaphore 'wait'\n" +
+                    "    echo 'should not get here'\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("wait/1", b);
+                docker[0].stopContainers();
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("prj", WorkflowJob.class).getLastBuild();
+                story.j.assertBuildStatus(Result.FAILURE, story.j.waitForCompletion(b));
+                story.j.assertLogContains("is no longer running", b);
+                story.j.assertLogNotContains("should not get here", b);
+                assertEquals(1, docker[0].calls().stream().filter(c -> c.startsWith("inspect ") && c.contains("State.Running")).count());
+            }
+        });
+    }
+
+    @Test public void uncheckedAfterRestart() {
+        FakeDockerCLI[] docker = new FakeDockerCLI[1];
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DockerTestUtil.assumeNotWindows();
+                docker[0] = FakeDockerCLI.install(story.j, tmp.newFolder(), 0);
+                story.j.jenkins.getDescriptorByType(DockerTool.DescriptorImpl.class).save(); // needed after the restart
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "prj");
+                p.setDefinition(new CpsFlowDefinition(
+                    "node {\n" +
+                    "  withDockerContainer(image: 'fake/image', toolName: '" + FakeDockerCLI.TOOL_NAME + "') {\n" +
+                    "    semaphore 'wait'\n" +
+                    "    echo 'carried on'\n" +
+                    "  }\n" +
+                    "}", true));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("wait/1", b);
+                docker[0].unreachable();
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("prj", WorkflowJob.class).getLastBuild();
+                story.j.waitForMessage("Could not check whether container", b);
+                SemaphoreStep.success("wait/1", null);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+                story.j.assertLogContains("Cannot connect to the Docker daemon", b);
+                story.j.assertLogContains("carried on", b);
+            }
+        });
+    }
+
     @Issue("JENKINS-32943")
     @Test public void fileCredentials() throws Exception {
         story.addStep(new Statement() {
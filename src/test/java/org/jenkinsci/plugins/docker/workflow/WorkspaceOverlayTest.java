@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.docker.workflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Collections;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkspaceOverlayTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void supportsUserXattr() {
+        assertTrue(WorkspaceOverlay.supportsUserXattr("5.11.0"));
+        assertTrue(WorkspaceOverlay.supportsUserXattr("5.15.0-91-generic"));
+        assertTrue(WorkspaceOverlay.supportsUserXattr("6.1.0-13-amd64"));
+        assertFalse(WorkspaceOverlay.supportsUserXattr("4.18.0-513.el8.x86_64"));
+        assertFalse(WorkspaceOverlay.supportsUserXattr("5.10.0"));
+        assertFalse(WorkspaceOverlay.supportsUserXattr(null));
+    }
+
+    @Test public void mergeOpaqueDirectory() throws Exception {
+        File ws = tmp.newFolder("ws");
+        write(ws, "dir/stale", "old");
+        write(ws, "dir/changed", "old");
+        write(ws, "kept", "old");
+        File upper = tmp.newFolder("upper");
+        write(upper, "dir/.wh..wh..opq", "");
+        write(upper, "dir/changed", "new");
+        write(upper, "added", "new");
+        assertEquals(Integer.valueOf(2), new WorkspaceOverlay.Merge(ws.getAbsolutePath()).invoke(upper, null));
+        assertFalse(new File(ws, "dir/stale").exists());
+        assertFalse(new File(ws, "dir/.wh..wh..opq").exists());
+        assertEquals("new", read(ws, "dir/changed"));
+        assertEquals("new", read(ws, "added"));
+        assertEquals("old", read(ws, "kept"));
+    }
+
+    @Test public void mergeOpaqueDirectoryAttribute() throws Exception {
+        File ws = tmp.newFolder("ws");
+        write(ws, "dir/stale", "old");
+        File upper = tmp.newFolder("upper");
+        write(upper, "dir/added", "new");
+        try {
+            Files.getFileAttributeView(new File(upper, "dir").toPath(), UserDefinedFileAttributeView.class).write("overlay.opaque", StandardCharsets.US_ASCII.encode("y"));
+        } catch (IOException | UnsupportedOperationException x) {
+            assumeNoException("user extended attributes not supported here", x);
+        }
+        new WorkspaceOverlay.Merge(ws.getAbsolutePath()).invoke(upper, null);
+        assertFalse(new File(ws, "dir/stale").exists());
+        assertEquals("new", read(ws, "dir/added"));
+    }
+
+    @Test public void mergeWaitsForOtherOverlays() throws Exception {
+        File ws = tmp.newFolder("ws");
+        write(ws, "file", "original");
+        File overlays = tmp.newFolder("ws@overlay");
+        write(overlays, "first/upper/file", "first");
+        write(overlays, "second/upper/file", "second");
+        write(overlays, "third/upper/other", "third");
+        WorkspaceOverlay.Outcome outcome = new WorkspaceOverlay.Close("second", true, ws.getAbsolutePath()).invoke(overlays, null);
+        assertEquals(2, outcome.waiting);
+        assertEquals(0, outcome.merged);
+        assertEquals("original", read(ws, "file"));
+        assertTrue(new File(overlays, "second/merge-pending").setLastModified(System.currentTimeMillis() - 10_000));
+        outcome = new WorkspaceOverlay.Close("third", false, ws.getAbsolutePath()).invoke(overlays, null);
+        assertEquals(1, outcome.waiting);
+        assertThat(outcome.trash, containsInAnyOrder(".closed-third"));
+        assertNull(new WorkspaceOverlay.Close("third", true, ws.getAbsolutePath()).invoke(overlays, null));
+        // The last overlay to close merges those which were waiting, in the order they closed.
+        outcome = new WorkspaceOverlay.Close("first", true, ws.getAbsolutePath()).invoke(overlays, null);
+        assertEquals(0, outcome.waiting);
+        assertEquals(2, outcome.merged);
+        assertThat(outcome.trash, containsInAnyOrder(".closed-first", ".closed-second"));
+        assertEquals("first", read(ws, "file"));
+        assertFalse(new File(ws, "other").exists());
+    }
+
+    @Test public void staleOverlaysDoNotHoldUpMerges() throws Exception {
+        File ws = tmp.newFolder("ws");
+        File overlays = tmp.newFolder("ws@overlay");
+        write(overlays, "abandoned/upper/file", "abandoned");
+        write(overlays, "mine/upper/file", "mine");
+        WorkspaceOverlay.Outcome outcome = new WorkspaceOverlay.Close("mine", true, ws.getAbsolutePath(), Collections.singleton("abandoned")).invoke(overlays, null);
+        assertEquals(0, outcome.waiting);
+        assertEquals(1, outcome.stale);
+        assertEquals(1, outcome.merged);
+        assertThat(outcome.trash, containsInAnyOrder(".closed-abandoned", ".closed-mine"));
+        assertEquals("mine", read(ws, "file"));
+    }
+
+    private static void write(File dir, String path, String text) throws Exception {
+        File f = new File(dir, path);
+        Files.createDirectories(f.getParentFile().toPath());
+        Files.writeString(f.toPath(), text);
+    }
+
+    private static String read(File dir, String path) throws Exception {
+        return Files.readString(new File(dir, path).toPath());
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import com.google.common.base.Optional;
+import java.io.IOException;
+import java.io.StringReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of finding the container ID in {@code /proc/self/cgroup}, done for every {@code withDockerContainer}.
+ */
+@State(Scope.Benchmark)
+public class ControlGroupBenchmark {
+
+    @Param({
+        "2:cpu:/docker/3dd988081e7149463c043b5d9c57d7309e079c5e9290f91feba1cc45a04d6a5b\n",
+        "12:hugetlb:/\n11:memory:/user.slice\n10:cpu,cpuacct:/user.slice\n9:pids:/user.slice/user-1000.slice\n1:name=systemd:/user.slice/user-1000.slice/session-2.scope\n0::/user.slice/user-1000.slice/session-2.scope\n"
+    })
+    public String cgroup;
+
+    @Benchmark public Optional<String> getContainerId() throws IOException {
+        return ControlGroup.getContainerId(new StringReader(cgroup));
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import hudson.util.VersionNumber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of parsing the output of {@code docker --version}, done for every {@code withDockerContainer}.
+ */
+@State(Scope.Benchmark)
+public class DockerClientBenchmark {
+
+    public String version = "Docker version 27.3.1, build ce12230";
+
+    @Benchmark public VersionNumber parseVersionNumber() {
+        return DockerClient.parseVersionNumber(version);
+    }
+
+}
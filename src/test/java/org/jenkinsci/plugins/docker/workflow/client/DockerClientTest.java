@@ -84,6 +84,17 @@ public class DockerClientTest {
         Assert.assertNull(dockerClient.inspect(launchEnv, anonymousVolumeName, ".Name"));
     }
 
+    @Test
+    public void test_forceStop() throws IOException, InterruptedException {
+        EnvVars launchEnv = DockerTestUtil.newDockerLaunchEnv();
+        String containerId =
+                dockerClient.run(launchEnv, "httpd:2.4.59", null, null, Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new EnvVars(),
+                        dockerClient.whoAmI(), "cat");
+        Assert.assertNotNull(dockerClient.inspect(launchEnv, containerId, ".Name"));
+        dockerClient.forceStop(launchEnv, containerId);
+        Assert.assertNull(dockerClient.inspect(launchEnv, containerId, ".Name"));
+    }
+
     @Test
     public void test_valid_version() {
         VersionNumber dockerVersion = DockerClient.parseVersionNumber("Docker version 1.5.0, build a8a31ef");
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.docker.workflow.client;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DockerCommandStatisticsTest {
+
+    @Test
+    public void test_histogram() {
+        DockerCommandStatistics stats = new DockerCommandStatistics();
+        for (int i = 1; i <= 100; i++) {
+            stats.started("inspect");
+            stats.record("inspect", TimeUnit.MILLISECONDS.toNanos(i), i % 10 == 0 ? 1 : 0, 10);
+        }
+        stats.started("exec");
+        stats.started("exec");
+        stats.record("exec", TimeUnit.SECONDS.toNanos(90), 0, 0);
+
+        List<DockerCommandStatistics.Histogram> histograms = stats.getHistograms();
+        Assert.assertEquals(2, histograms.size());
+        DockerCommandStatistics.Histogram exec = histograms.get(0);
+        DockerCommandStatistics.Histogram inspect = histograms.get(1);
+        Assert.assertEquals("exec", exec.getCommand());
+        Assert.assertEquals("inspect", inspect.getCommand());
+
+        Assert.assertEquals(100, inspect.getStarted());
+        Assert.assertEquals(100, inspect.getCount());
+        Assert.assertEquals(10, inspect.getFailures());
+        Assert.assertEquals(50, inspect.getMeanMillis());
+        Assert.assertEquals(50, inspect.getPercentileMillis(50));
+        Assert.assertEquals(100, inspect.getPercentileMillis(90));
+        Assert.assertEquals(100, inspect.getMaxMillis());
+        Assert.assertEquals(1000, inspect.getOutputBytes());
+
+        // one never waited for
+        Assert.assertEquals(2, exec.getStarted());
+        Assert.assertEquals(1, exec.getCount());
+        // beyond the last bucket
+        Assert.assertEquals(90000, exec.getPercentileMillis(99));
+
+        stats.reset();
+        Assert.assertTrue(stats.getHistograms().isEmpty());
+    }
+
+}
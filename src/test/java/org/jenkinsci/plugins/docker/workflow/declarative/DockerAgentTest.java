@@ -83,6 +83,12 @@ public class DockerAgentTest extends AbstractModelDefTest {
         agentDocker("org/jenkinsci/plugins/docker/workflow/declarative/agentDockerReuseNode");
     }
 
+    @Test
+    public void agentDockerPrefetchImages() throws Exception {
+        agentDocker("org/jenkinsci/plugins/docker/workflow/declarative/agentDockerPrefetchImages",
+                "[Pipeline] dockerPrefetch");
+    }
+
     @Issue("JENKINS-49558")
     @Test
     public void agentDockerContainerPerStage() throws Exception {
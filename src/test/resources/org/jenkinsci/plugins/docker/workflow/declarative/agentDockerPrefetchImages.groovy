@@ -0,0 +1,27 @@
+pipeline {
+    agent {
+        docker {
+            image "httpd:2.4.59"
+            label "docker"
+            prefetchImages true
+        }
+    }
+    stages {
+        stage("foo") {
+            steps {
+                sh 'echo "The answer is 42"'
+            }
+        }
+        stage("bar") {
+            agent {
+                docker {
+                    image "ubuntu:noble"
+                    reuseNode true
+                }
+            }
+            steps {
+                sh 'test -f Jenkinsfile'
+            }
+        }
+    }
+}